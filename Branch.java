@@ -1,16 +1,16 @@
-import java.io.File;
-import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Scanner;
+import java.util.TreeSet;
 
 
-@SuppressWarnings("serial")
-public class Branch implements Serializable {
+public class Branch {
 
     private String name;
-    private Commit head;
+    private String headID;
+    private Data data;
     
     /**
      * Initializes all class variables. Sets head to null.
@@ -18,7 +18,7 @@ public class Branch implements Serializable {
      */
     public Branch(String name) {
         this.name = name;
-        this.head = null;
+        this.headID = null;
     }
     
     /**
@@ -26,7 +26,24 @@ public class Branch implements Serializable {
      */
     public Branch(String name, Branch parent) {
         this.name = name;
-        this.head = parent.getHead();
+        this.headID = parent.getHeadID();
+    }
+    
+    /**
+     * Initializes all class variables. Used when loading a saved branch,
+     * whose head commit is read from data only when needed.
+     */
+    public Branch(String name, String headID, Data data) {
+        this.name = name;
+        this.headID = headID;
+        this.data = data;
+    }
+    
+    /**
+     * Sets the data used to look up commits of this branch.
+     */
+    public void attach(Data data) {
+        this.data = data;
     }
     
     /**
@@ -40,92 +57,88 @@ public class Branch implements Serializable {
      * Returns the head (most recent commit) of this branch.
      */
     public Commit getHead() {
-        return head;
+        return data.getCommit(headID);
     }
     
     /**
-     * Returns a list of the history of this branch from the head to the initial commit.
+     * Returns the commit ID of the head of this branch, or null if it has no commits.
      */
-    public ArrayList<String> getCommitHistory() {
-        ArrayList<String> commits = new ArrayList<String>();
-        Commit iterator = head;
-        while (iterator != null) {
-            commits.add(iterator.getHash());
-            iterator = iterator.getParent();
-        }
-        return commits;
+    public String getHeadID() {
+        return headID;
     }
     
     /**
      * Adds a commit to this branch using the given message into the given data.
      * Reads staged files, files marked for removal, and creates new commit accordingly.
-     * Updates head to the new commit.
+     * Staged files are hashed and stored in parallel. Updates head to the new commit.
+     * Nothing is committed if a staged file has been deleted since it was staged.
      */
     public void commit(String message, Data data) {
         HashSet<String> stagedFiles = data.getStagedFiles();
         HashSet<String> removedFiles = data.getRemoveFiles();
+        Commit head = getHead();
         
         if (stagedFiles.size() == 0 && removedFiles.size() == 0 && head != null) {
             System.out.println("No changes added to the commit."); return;
         }
         
-        Commit commit = new Commit(message, stagedFiles, removedFiles, head);
-        head = commit;
-        data.addCommit(commit);
-        data.clear();
-        
-        if (commit.getNewFiles().size() > 0) {
-            new File(".gitlet" + File.separator + commit.getHash()).mkdir();
-            for (String item : commit.getNewFiles()) {
-                Tools.copyToCommit(item, commit.getHash());
+        HashMap<String, String> blobs = ObjectStore.storeAll(stagedFiles, data.getIndex());
+        if (blobs.size() < stagedFiles.size()) {
+            for (String fileName : new TreeSet<String>(stagedFiles)) {
+                if (!blobs.containsKey(fileName)) {
+                    System.out.println("Staged file " + fileName + " no longer exists.");
+                }
             }
+            return;
         }
+        Commit commit = new Commit(message, blobs, removedFiles, head);
+        headID = commit.getHash();
+        data.addCommit(commit);
+        data.clear();
     }
     
     /**
-     * Prints a list of all commits in the current commit history of this branch.
-     * Prints the commit ID, the times, and the messages of each commit.
+     * Prints the commits in the history of this branch that pass the given filter,
+     * newest first. Prints the commit ID, the times, and the messages of each commit.
+     * Commits are read one at a time as the history is walked, so only as many are
+     * read as are printed or skipped. A plain skip is taken through the commit graph
+     * without reading the skipped commits, and since history runs back in time, the
+     * walk stops at the first commit before the filter's range.
      */
-    public void log() {
-        HashMap<String, Commit> commitMap = Gitlet.loadData().getCommits();
-        for (String item : getCommitHistory()) {
-            System.out.println("====");
-            System.out.println("Commit " + item + ".");
-            System.out.println(commitMap.get(item).getTime());
-            System.out.println(commitMap.get(item).getMessage());
-            System.out.println();
+    public void log(LogFilter filter) {
+        String commitID = headID;
+        if (!filter.hasRange() && filter.getSkip() > 0) {
+            commitID = data.getCommitGraph().ancestor(headID, filter.getSkip(), data);
+            filter.skipAll();
+        }
+        while (commitID != null && !filter.isDone()) {
+            Commit commit = data.readCommit(commitID);
+            if (filter.isBefore(commit)) {
+                return;
+            }
+            filter.offer(commit);
+            commitID = commit.getParentID();
         }
     }
 
     /**
      * Changes the head (most recent commit) of this branch to the given commit.
-     * Copies all files in new commit to working directory.
+     * Updates the working directory from the old head's files to the new commit's
+     * through Checkout, as a branch checkout does.
      */
     public void reset(Commit commit) {
-        head = commit;
-        for (String fileName : commit.getFiles().keySet()) {
-            Tools.copyToDirectory(fileName, commit.getFiles().get(fileName));
-        }
+        Commit previous = getHead();
+        headID = commit.getHash();
+        Checkout.update(previous, commit, data.getIndex());
     }
     
     /**
      * Finds the splitting commit point of the current branch and the given branch.
+     * Uses the commit graph, so only commits made since the split are visited.
      */
     private Commit findSplitPoint(Branch branch) {
-        HashSet<String> findSplitPoint = new HashSet<String>();
-        Commit iterator = head;
-        while (iterator != null) {
-            findSplitPoint.add(iterator.getHash());
-            iterator = iterator.getParent();
-        }
-        iterator = branch.getHead();
-        while (iterator != null) {
-            if (findSplitPoint.contains(iterator.getHash())) {
-                return iterator;
-            }
-            iterator = iterator.getParent();
-        }
-        return null;
+        return data.getCommit(data.getCommitGraph().findMergeBase(headID,
+                branch.getHeadID(), data));
     }
     
     /**
@@ -143,30 +156,23 @@ public class Branch implements Serializable {
      * CASE 4: Neither is modified = DO NOTHING
      */
     public void merge(Branch branch) {
-        Commit iterator = head;
-        HashSet<String> thisNewFiles = new HashSet<String>();
-        HashSet<String> branchNewFiles = new HashSet<String>();
-        
+        Commit head = getHead();
         Commit splitPoint = findSplitPoint(branch);
-        
-        while (!iterator.getHash().equals(splitPoint.getHash())) {
-            thisNewFiles.addAll(iterator.getNewFiles());
-            iterator = iterator.getParent();
-        }
-        iterator = branch.getHead();
-        while (!iterator.getHash().equals(splitPoint.getHash())) {
-            branchNewFiles.addAll(iterator.getNewFiles());
-            iterator = iterator.getParent();
-        }
+        CommitGraph graph = data.getCommitGraph();
+        BitSet thisNewFiles = graph.changedSince(headID, splitPoint.getHash(), data);
+        BitSet branchNewFiles = graph.changedSince(branch.getHeadID(),
+                splitPoint.getHash(), data);
        
         for (String item : branch.getHead().getFiles().keySet()) {
-            boolean thisContains = thisNewFiles.contains(item);
-            boolean branchContains = branchNewFiles.contains(item);
+            boolean thisContains = graph.isChanged(thisNewFiles, item);
+            boolean branchContains = graph.isChanged(branchNewFiles, item);
             if ((!head.getFiles().containsKey(item) && branchContains)
                     || !thisContains && branchContains) {
-                Tools.copyToDirectory(item, branch.getHead().getFiles().get(item));
+                Tools.copyToDirectory(item, branch.getHead().getFiles().get(item),
+                        data.getIndex());
             } else if (thisContains && branchContains) {
-                Tools.copyToDirectoryConflicted(item, branch.getHead().getFiles().get(item));
+                Tools.copyToDirectoryConflicted(item, branch.getHead().getFiles().get(item),
+                        data.getIndex());
             }
         }
     }  
@@ -186,36 +192,33 @@ public class Branch implements Serializable {
      * CASE 4: Neither is modified = DO NOTHING
      * 
      * If any changes are made, changes will be propagated all the way through from the first
-     * new commit all the way to the most recent commit.
+     * new commit all the way to the most recent commit. Each new commit's tree is built
+     * once, with its own files and the propagated ones together.
      */
     public void rebase(Branch branch, Data data, boolean isInteractive) {
         Commit splitPoint = findSplitPoint(branch);
+        Commit head = getHead();
         
         if (splitPoint.getHash().equals(branch.getHead().getHash())) {
             System.out.println("Already up-to-date."); return;
         }
         if (splitPoint.getHash().equals(head.getHash())) {
-            head = branch.getHead(); return;
+            headID = branch.getHeadID(); return;
         }
         Commit iterator = head;
-        HashSet<String> thisNewFiles = new HashSet<String>();
-        HashSet<String> branchNewFiles = new HashSet<String>();
         ArrayList<Commit> newCommits = new ArrayList<Commit>();
-
         while (!iterator.getHash().equals(splitPoint.getHash())) {
-            thisNewFiles.addAll(iterator.getNewFiles());
             newCommits.add(iterator);
             iterator = iterator.getParent();
         }
-        iterator = branch.getHead();
-        while (!iterator.getHash().equals(splitPoint.getHash())) {
-            branchNewFiles.addAll(iterator.getNewFiles());
-            iterator = iterator.getParent();
-        }
+        CommitGraph graph = data.getCommitGraph();
+        BitSet thisNewFiles = graph.changedSince(headID, splitPoint.getHash(), data);
+        BitSet branchNewFiles = graph.changedSince(branch.getHeadID(),
+                splitPoint.getHash(), data);
         HashMap<String, String> propogateFiles = new HashMap<String, String>();
         for (String item : branch.getHead().getFiles().keySet()) {
-            boolean thisContains = thisNewFiles.contains(item);
-            boolean branchContains = branchNewFiles.contains(item);
+            boolean thisContains = graph.isChanged(thisNewFiles, item);
+            boolean branchContains = graph.isChanged(branchNewFiles, item);
             if (!thisContains && branchContains) {
                 propogateFiles.put(item, branch.getHead().getFiles().get(item));
             }
@@ -249,16 +252,14 @@ public class Branch implements Serializable {
                     input = reader.next();
                     message = input;
                 }
-                Commit newCommit = new Commit(message, oldCommit.getNewFiles(), 
-                        oldCommit.getRemovedFiles(), oldCommit.getParent());
-                newCommit.rebaseParent(previous);
-                for (String item : propogateFiles.keySet()) {
-                    newCommit.addNewFile(item, propogateFiles.get(item));
-                }
-                
+                HashMap<String, String> oldFiles = new HashMap<String, String>();
                 for (String item : oldCommit.getNewFiles()) {
-                    newCommit.addNewFile(item, oldCommit.getFiles().get(item));
+                    oldFiles.put(item, oldCommit.getFile(item));
                 }
+                oldFiles.putAll(propogateFiles);
+                Commit newCommit = new Commit(message, oldFiles, 
+                        oldCommit.getRemovedFiles(), oldCommit.getParent());
+                newCommit.rebaseParent(previous);
 
                 previous = newCommit;
                 data.addCommit(newCommit);
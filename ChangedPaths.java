@@ -0,0 +1,508 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+
+public class ChangedPaths {
+    
+    private static final String ROOT = ".gitlet";
+    private static final String PATHS = ROOT + File.separator + "paths";
+    private static final String PATH_LOOKUP = ROOT + File.separator + "paths.idx";
+    private static final String LISTS = ROOT + File.separator + "changed-paths";
+    private static final String OFFSETS = ROOT + File.separator + "changed-paths.idx";
+    
+    /**
+     * Sizes of the parts of the path lookup table: the number of paths it covers and
+     * the offset in the paths file just past them, the fanout table, and one entry.
+     */
+    private static final int LOOKUP_HEADER = 8;
+    private static final int FANOUT = 256 * 4;
+    private static final int ENTRY_SIZE = 12;
+    
+    /**
+     * Once this many paths have been saved after those the lookup table covers, the
+     * table is written again.
+     */
+    private static final int SORT_AFTER = 256;
+    
+    private boolean pathsLoaded;
+    private ByteBuffer names;
+    private ByteBuffer lookup;
+    private int sortedPaths;
+    private int savedPaths;
+    private HashMap<String, Integer> recentIDs;
+    private ArrayList<String> newNames;
+    private ByteBuffer lists;
+    private ByteBuffer offsets;
+    private int savedCount;
+    private long listsSize;
+    private ArrayList<int[]> newLists;
+    private int unsaved;
+    
+    /**
+     * Initiates all class variables, with no paths or commits.
+     */
+    private ChangedPaths() {
+        pathsLoaded = false;
+        names = ByteBuffer.allocate(0);
+        lookup = ByteBuffer.allocate(0);
+        sortedPaths = 0;
+        savedPaths = 0;
+        recentIDs = new HashMap<String, Integer>();
+        newNames = new ArrayList<String>();
+        lists = ByteBuffer.allocate(0);
+        offsets = ByteBuffer.allocate(0);
+        savedCount = 0;
+        listsSize = 0;
+        newLists = new ArrayList<int[]>();
+        unsaved = 0;
+    }
+    
+    /**
+     * Loads the saved index of changed paths. Every file name ever committed is given
+     * a small integer path ID, in the order the names were first seen. For each commit,
+     * in the same order as the commit graph, the index holds the sorted IDs of the paths
+     * that commit added or changed. The lists are mapped rather than read, and the
+     * path names aren't touched until a path is looked up.
+     */
+    public static ChangedPaths load() {
+        ChangedPaths changedPaths = new ChangedPaths();
+        try {
+            File offsetsFile = new File(OFFSETS);
+            File listsFile = new File(LISTS);
+            if (offsetsFile.exists() && listsFile.exists()) {
+                changedPaths.offsets = map(offsetsFile, 8);
+                changedPaths.lists = map(listsFile, 1);
+                changedPaths.savedCount = changedPaths.offsets.capacity() / 8;
+                changedPaths.listsSize = changedPaths.lists.capacity();
+            }
+        } catch (IOException e) {
+            System.out.println("IOException while loading changed paths.");
+        }
+        return changedPaths;
+    }
+    
+    /**
+     * Maps the path names and their lookup table, the first time a path is looked up
+     * or added. The table is written again if there are many paths it doesn't cover.
+     */
+    private void loadPaths() {
+        if (pathsLoaded) {
+            return;
+        }
+        pathsLoaded = true;
+        mapPaths();
+        if (savedPaths - sortedPaths >= SORT_AFTER) {
+            writePathLookup();
+        }
+    }
+    
+    /**
+     * Maps the paths file, which holds each path name in ID order as written by
+     * writeUTF, and the lookup table. The table holds an entry of hash, path ID and
+     * offset in the paths file for each path it covers, sorted by hash then ID, after a
+     * fanout table where entry b counts the entries whose hashes start with a byte up
+     * to b. The paths after those it covers are read into a map, along with the paths
+     * not yet saved.
+     */
+    private void mapPaths() {
+        names = ByteBuffer.allocate(0);
+        lookup = ByteBuffer.allocate(0);
+        sortedPaths = 0;
+        int end = 0;
+        try {
+            File pathsFile = new File(PATHS);
+            if (pathsFile.exists()) {
+                names = map(pathsFile, 1);
+            }
+            File lookupFile = new File(PATH_LOOKUP);
+            if (lookupFile.exists()) {
+                ByteBuffer mapped = map(lookupFile, 1);
+                int count = mapped.capacity() < LOOKUP_HEADER ? -1 : mapped.getInt(0);
+                int covered = mapped.capacity() < LOOKUP_HEADER ? -1 : mapped.getInt(4);
+                if (count >= 0 && covered >= 0 && covered <= names.capacity()
+                        && mapped.capacity() == LOOKUP_HEADER + FANOUT
+                        + (long) count * ENTRY_SIZE) {
+                    lookup = mapped;
+                    sortedPaths = count;
+                    end = covered;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("IOException while loading changed paths.");
+        }
+        recentIDs.clear();
+        savedPaths = sortedPaths;
+        int offset = end;
+        String name;
+        while ((name = readName(offset)) != null) {
+            recentIDs.put(name, savedPaths++);
+            offset += 2 + (names.getShort(offset) & 0xffff);
+        }
+        for (int i = 0; i < newNames.size(); i++) {
+            recentIDs.put(newNames.get(i), savedPaths + i);
+        }
+    }
+    
+    /**
+     * Returns the path name written at the given offset of the paths file, or null if
+     * there is no whole name there.
+     */
+    private String readName(int offset) {
+        if (offset + 2 > names.capacity()) {
+            return null;
+        }
+        int length = names.getShort(offset) & 0xffff;
+        if (offset + 2 + length > names.capacity()) {
+            return null;
+        }
+        byte[] bytes = new byte[2 + length];
+        ByteBuffer source = names.duplicate();
+        source.position(offset);
+        source.get(bytes);
+        try {
+            return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Returns the given path name as writeUTF writes it, or null if it is too long.
+     */
+    private static byte[] encode(String name) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            new DataOutputStream(bytes).writeUTF(name);
+        } catch (IOException e) {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Returns the ID of the given path, or null if it has none. Recent paths are kept in
+     * a map; the others are found by binary search of the lookup table for the path's
+     * hash, checking the name of each entry with that hash in the paths file.
+     */
+    private Integer pathID(String fileName) {
+        Integer recent = recentIDs.get(fileName);
+        if (recent != null || sortedPaths == 0) {
+            return recent;
+        }
+        byte[] encoded = encode(fileName);
+        if (encoded == null) {
+            return null;
+        }
+        int hash = fileName.hashCode();
+        int first = hash >>> 24;
+        int low = first == 0 ? 0 : lookup.getInt(LOOKUP_HEADER + (first - 1) * 4);
+        int high = lookup.getInt(LOOKUP_HEADER + first * 4);
+        int limit = high;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Integer.compareUnsigned(entry(middle, 0), hash) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < limit && entry(i, 0) == hash; i++) {
+            if (nameMatches(entry(i, 8), encoded)) {
+                return entry(i, 4);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Returns a field of the entry at the given place in the lookup table: the hash at
+     * 0, the path ID at 4, or the offset of the name at 8.
+     */
+    private int entry(int index, int field) {
+        return lookup.getInt(LOOKUP_HEADER + FANOUT + index * ENTRY_SIZE + field);
+    }
+    
+    /**
+     * Returns true if the paths file holds the given encoded name at the given offset.
+     */
+    private boolean nameMatches(int offset, byte[] encoded) {
+        if (offset < 0 || offset + encoded.length > names.capacity()) {
+            return false;
+        }
+        for (int i = 0; i < encoded.length; i++) {
+            if (names.get(offset + i) != encoded[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Writes the lookup table again to cover every saved path, through a temporary
+     * file. The paths it didn't cover are sorted and merged with the entries it has.
+     */
+    private void writePathLookup() {
+        ArrayList<int[]> tail = new ArrayList<int[]>();
+        int offset = sortedPaths == 0 ? 0 : lookup.getInt(4);
+        String name;
+        while ((name = readName(offset)) != null) {
+            tail.add(new int[] {name.hashCode(), sortedPaths + tail.size(), offset});
+            offset += 2 + (names.getShort(offset) & 0xffff);
+        }
+        Collections.sort(tail, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                int result = Integer.compareUnsigned(a[0], b[0]);
+                return result != 0 ? result : Integer.compare(a[1], b[1]);
+            }
+        });
+        
+        int count = sortedPaths + tail.size();
+        int[] fanout = new int[256];
+        File temp = null;
+        try {
+            File lookupFile = new File(PATH_LOOKUP);
+            temp = File.createTempFile("paths", ".tmp", lookupFile.getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)));
+            out.writeInt(count);
+            out.writeInt(offset);
+            for (int[] entry : tail) {
+                fanout[entry[0] >>> 24]++;
+            }
+            for (int i = 0; i < sortedPaths; i++) {
+                fanout[entry(i, 0) >>> 24]++;
+            }
+            int total = 0;
+            for (int bucket : fanout) {
+                total += bucket;
+                out.writeInt(total);
+            }
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < count; k++) {
+                if (j == tail.size() || (i < sortedPaths
+                        && Integer.compareUnsigned(entry(i, 0), tail.get(j)[0]) <= 0)) {
+                    out.writeInt(entry(i, 0));
+                    out.writeInt(entry(i, 4));
+                    out.writeInt(entry(i, 8));
+                    i++;
+                } else {
+                    int[] entry = tail.get(j++);
+                    out.writeInt(entry[0]);
+                    out.writeInt(entry[1]);
+                    out.writeInt(entry[2]);
+                }
+            }
+            out.close();
+            MetadataStore.replace(temp, lookupFile);
+        } catch (IOException e) {
+            System.out.println("IOException while saving changed paths.");
+            if (temp != null) {
+                temp.delete();
+            }
+            return;
+        }
+        mapPaths();
+    }
+    
+    /**
+     * Appends the paths added since they were last saved, then maps them again.
+     */
+    private void savePaths() throws IOException {
+        if (newNames.isEmpty()) {
+            return;
+        }
+        DataOutputStream pathsOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(PATHS, true)));
+        for (String name : newNames) {
+            pathsOut.writeUTF(name);
+        }
+        pathsOut.close();
+        newNames.clear();
+        mapPaths();
+        if (savedPaths - sortedPaths >= SORT_AFTER) {
+            writePathLookup();
+        }
+    }
+    
+    /**
+     * Returns a read-only mapping of the given file, trimmed to a whole number of
+     * records of the given size.
+     */
+    private static ByteBuffer map(File file, int recordSize) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        FileChannel channel = in.getChannel();
+        long size = channel.size() - channel.size() % recordSize;
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        in.close();
+        return buffer;
+    }
+    
+    /**
+     * Appends the paths and changed-path lists added since the index was loaded.
+     */
+    public void save() {
+        if (unsaved == newLists.size() && newNames.isEmpty()) {
+            return;
+        }
+        try {
+            savePaths();
+            writeLists(newLists.subList(unsaved, newLists.size()), new File(LISTS),
+                    new File(OFFSETS), true);
+            unsaved = newLists.size();
+        } catch (IOException e) {
+            System.out.println("IOException while saving changed paths.");
+        }
+    }
+    
+    /**
+     * Returns the number of commits in the index.
+     */
+    public int count() {
+        return savedCount + newLists.size();
+    }
+    
+    /**
+     * Adds the paths changed by the given commit as the next entry in the index.
+     */
+    public void add(Commit commit) {
+        loadPaths();
+        newLists.add(toIDs(commit));
+    }
+    
+    /**
+     * Sets every bit of changed whose path was changed by the commit at the given
+     * position.
+     */
+    public void addChanged(int position, BitSet changed) {
+        if (position >= savedCount) {
+            for (int pathID : newLists.get(position - savedCount)) {
+                changed.set(pathID);
+            }
+            return;
+        }
+        int offset = (int) offsets.getLong(position * 8);
+        int length = lists.getInt(offset);
+        for (int i = 0; i < length; i++) {
+            changed.set(lists.getInt(offset + 4 + i * 4));
+        }
+    }
+    
+    /**
+     * Returns true if the given file name's bit is set in changed.
+     */
+    public boolean isChanged(BitSet changed, String fileName) {
+        loadPaths();
+        Integer pathID = pathID(fileName);
+        return pathID != null && changed.get(pathID);
+    }
+    
+    /**
+     * Rewrites the whole index from the given commits, in commit graph order.
+     * Path IDs already given out are kept, and new paths are appended to the paths file
+     * first. The lists are written in full to temporary files and renamed into place,
+     * so commands reading the index at the same time see either the old files or the
+     * new ones.
+     */
+    public void rebuild(ArrayList<Commit> commits) {
+        loadPaths();
+        ArrayList<int[]> allLists = new ArrayList<int[]>();
+        for (Commit commit : commits) {
+            allLists.add(toIDs(commit));
+        }
+        File listsFile = new File(LISTS);
+        File offsetsFile = new File(OFFSETS);
+        File listsTemp = null;
+        File offsetsTemp = null;
+        try {
+            savePaths();
+            listsTemp = File.createTempFile("changed-paths", ".tmp", listsFile.getParentFile());
+            offsetsTemp = File.createTempFile("changed-paths", ".tmp",
+                    offsetsFile.getParentFile());
+            listsSize = 0;
+            writeLists(allLists, listsTemp, offsetsTemp, false);
+            MetadataStore.replace(listsTemp, listsFile);
+            MetadataStore.replace(offsetsTemp, offsetsFile);
+            offsets = map(offsetsFile, 8);
+            lists = map(listsFile, 1);
+            savedCount = offsets.capacity() / 8;
+            listsSize = lists.capacity();
+            newLists = new ArrayList<int[]>();
+            unsaved = 0;
+        } catch (IOException e) {
+            System.out.println("IOException while saving changed paths.");
+            for (File temp : new File[] {listsTemp, offsetsTemp}) {
+                if (temp != null) {
+                    temp.delete();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Writes the given lists of path IDs to listsFile, and the offset of each list to
+     * offsetsFile, either appending to them or replacing them.
+     */
+    private void writeLists(List<int[]> toWrite, File listsFile, File offsetsFile,
+            boolean append) throws IOException {
+        DataOutputStream listsOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(listsFile, append)));
+        DataOutputStream offsetsOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(offsetsFile, append)));
+        for (int[] list : toWrite) {
+            offsetsOut.writeLong(listsSize);
+            listsOut.writeInt(list.length);
+            for (int pathID : list) {
+                listsOut.writeInt(pathID);
+            }
+            listsSize += 4 + list.length * 4;
+        }
+        listsOut.close();
+        offsetsOut.close();
+    }
+    
+    /**
+     * Returns the sorted path IDs of the files the given commit added or changed,
+     * giving new paths the next unused IDs.
+     */
+    private int[] toIDs(Commit commit) {
+        int[] ids = new int[commit.getNewFiles().size()];
+        int i = 0;
+        for (String fileName : commit.getNewFiles()) {
+            Integer pathID = pathID(fileName);
+            if (pathID == null) {
+                pathID = addPath(fileName);
+            }
+            ids[i++] = pathID;
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+    
+    /**
+     * Gives the given file name the next path ID, and returns it.
+     */
+    private int addPath(String fileName) {
+        int pathID = savedPaths + newNames.size();
+        newNames.add(fileName);
+        recentIDs.put(fileName, pathID);
+        return pathID;
+    }
+}
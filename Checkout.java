@@ -0,0 +1,159 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+public class Checkout {
+    
+    /**
+     * Upper bound on copy threads. Copies are I/O bound, so more threads than
+     * this only add contention on the disk.
+     */
+    private static final int MAX_THREADS = 16;
+    
+    /**
+     * Number of files each copy task handles.
+     */
+    private static final int BATCH_SIZE = 64;
+    
+    /**
+     * Updates the working directory from the files of commit from to those of commit to.
+     * Only files whose blob differs between the two commits are written, and files
+     * tracked in from but not in to are deleted, along with folders they leave empty.
+     * A file whose blob is the same in both is still rewritten if the index can't
+     * confirm, with a single stat call, that the working copy matches it, so
+     * uncommitted changes are discarded as before.
+     * from may be null, in which case every file of to is written.
+     */
+    public static void update(Commit from, Commit to, Index index) {
+        HashMap<String, String> fromFiles = from == null
+                ? new HashMap<String, String>() : from.getFiles();
+        HashMap<String, String> toFiles = to.getFiles();
+        HashMap<String, String> changedFiles = new HashMap<String, String>();
+        for (String fileName : toFiles.keySet()) {
+            String hash = toFiles.get(fileName);
+            if (!hash.equals(fromFiles.get(fileName))
+                    || !hash.equals(index.getCachedHash(fileName))) {
+                changedFiles.put(fileName, hash);
+            }
+        }
+        for (String fileName : fromFiles.keySet()) {
+            if (!toFiles.containsKey(fileName)) {
+                delete(fileName, index);
+            }
+        }
+        copyFiles(changedFiles, index);
+    }
+    
+    /**
+     * Deletes a file that is no longer tracked, drops its index entry, and removes any
+     * of its parent folders left empty, as a checkout of the commit would never have
+     * created them.
+     */
+    private static void delete(String fileName, Index index) {
+        File file = new File(fileName);
+        index.remove(fileName);
+        if (!file.delete()) {
+            return;
+        }
+        File parent = file.getParentFile();
+        while (parent != null && parent.delete()) {
+            parent = parent.getParentFile();
+        }
+    }
+    
+    /**
+     * Writes every file in the given map (file name to blob ID) to the working directory.
+     * All destination folders are created first, each exactly once, then the files are
+     * copied in batches on a bounded pool of threads. Copied files are recorded in the
+     * given index.
+     */
+    public static void copyFiles(HashMap<String, String> files, Index index) {
+        if (files.isEmpty()) {
+            return;
+        }
+        makeDirectories(files.keySet());
+        
+        ArrayList<String> fileNames = new ArrayList<String>(files.keySet());
+        int threads = Math.min(MAX_THREADS, Math.max(1,
+                Math.min(Runtime.getRuntime().availableProcessors() * 2,
+                (fileNames.size() + BATCH_SIZE - 1) / BATCH_SIZE)));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+        for (int start = 0; start < fileNames.size(); start += BATCH_SIZE) {
+            int end = Math.min(start + BATCH_SIZE, fileNames.size());
+            results.add(pool.submit(new CopyTask(fileNames.subList(start, end), files, index)));
+        }
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Creates the parent folder of every given file name. Folders are visited in
+     * reverse sorted order, so the folders inside a folder come just before it; a
+     * folder that contains the one last created already exists through mkdirs and is
+     * skipped, so each one is probed and created at most once.
+     */
+    private static void makeDirectories(Iterable<String> fileNames) {
+        TreeSet<String> directories = new TreeSet<String>();
+        for (String fileName : fileNames) {
+            String parent = new File(fileName).getParent();
+            if (parent != null) {
+                directories.add(parent);
+            }
+        }
+        String created = null;
+        for (String directory : directories.descendingSet()) {
+            if (created != null && created.startsWith(directory + File.separator)) {
+                continue;
+            }
+            File folder = new File(directory);
+            if (!folder.isDirectory()) {
+                folder.mkdirs();
+            }
+            created = directory;
+        }
+    }
+    
+    /**
+     * Copies one batch of files from the object store to the working directory.
+     */
+    private static class CopyTask implements Runnable {
+        private final List<String> fileNames;
+        private final HashMap<String, String> files;
+        private final Index index;
+        
+        CopyTask(List<String> fileNames, HashMap<String, String> files, Index index) {
+            this.fileNames = fileNames;
+            this.files = files;
+            this.index = index;
+        }
+        
+        @Override
+        public void run() {
+            for (String fileName : fileNames) {
+                String hash = files.get(fileName);
+                if (Tools.copyBlobTo(hash, new File(fileName))) {
+                    index.update(fileName, hash);
+                } else {
+                    index.remove(fileName);
+                }
+            }
+        }
+    }
+}
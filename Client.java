@@ -0,0 +1,88 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+
+public class Client {
+    
+    private static final String SOCKET = ".gitlet" + File.separator + "daemon.sock";
+    private static final int BUFFER_SIZE = 8 * 1024;
+    
+    /**
+     * Sends the command in args to the daemon serving the repository in the current
+     * directory, forwards this process's input to it and prints its output as it
+     * arrives. If no daemon is running, the command is run here instead, as Git would.
+     * Only this class is loaded when a daemon answers.
+     */
+    public static void main(String[] args) {
+        final SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET));
+        } catch (IOException e) {
+            Git.main(args);
+            return;
+        }
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            
+            Thread input = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sendInput(channel);
+                        channel.shutdownOutput();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+            input.setDaemon(true);
+            input.start();
+            
+            printOutput(channel);
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("IOException while talking to daemon.");
+        }
+    }
+    
+    /**
+     * Sends everything read from this process's input to the daemon. The channel is
+     * written directly rather than through Channels.newOutputStream, whose stream would
+     * wait for printOutput's read to finish.
+     */
+    private static void sendInput(SocketChannel channel) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = System.in.read(buffer)) != -1) {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+    
+    /**
+     * Prints everything the daemon sends until it closes the connection, as soon as
+     * it arrives.
+     */
+    private static void printOutput(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (channel.read(buffer) != -1) {
+            System.out.write(buffer.array(), 0, buffer.position());
+            System.out.flush();
+            buffer.clear();
+        }
+    }
+}
@@ -1,53 +1,145 @@
-import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Formatter;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
 
 
-@SuppressWarnings("serial")
-public class Commit implements Serializable {
+public class Commit {
     private final String message;
     private final Date date;
-    private final String hashCode;
+    private ObjectId hashCode;
+    private String treeID;
     private HashMap<String, String> files;
     private HashSet<String> newFiles;
     private HashSet<String> removedFiles;
-    private Commit parent;
+    private ObjectId parentID;
+    private Data data;
     
-    private final int hashNum = 31;
+    /**
+     * Markers written in place of the number of files in a commit record.
+     */
+    private static final int TREE = -2;
+    private static final int EMPTY = -1;
     
     /**
      * Initiates all class variables.
      * Inherits all files from parent.
      * Adds a files in newFiles, then removes all files in removeFiles.
+     * newFiles maps each file name to the ID of the blob holding its contents.
+     * Files are kept in a tree that shares every unchanged directory with the
+     * parent's, so only the changed paths are copied.
      */
-    public Commit(String message, HashSet<String> newFiles, 
+    public Commit(String message, HashMap<String, String> newFiles, 
             HashSet<String> removeFiles, Commit parent) {
         this.message = message;
-        this.parent = parent;
+        this.parentID = parent == null ? null : parent.getID();
         this.date = new Date();
-        this.files = new HashMap<String, String>();
+        this.files = null;
         this.newFiles = new HashSet<String>();
         this.removedFiles = new HashSet<String>();
         
-        if (parent != null) {
-            this.files.putAll(parent.getFiles());
-        }
-        
-        this.newFiles.addAll(newFiles);
+        this.newFiles.addAll(newFiles.keySet());
         this.removedFiles.addAll(removeFiles);
-        this.hashCode = genHash();
         
-        for (String item : newFiles) {
-            files.put(item, getHash());
+        this.treeID = Tree.update(parent == null ? null : parent.getTreeID(),
+                newFiles, removeFiles);
+        this.hashCode = genHash();
+    }
+    
+    /**
+     * Initiates all class variables from a saved record. Used only in read.
+     */
+    private Commit(String message, Date date, ObjectId hashCode, ObjectId parentID,
+            String treeID, HashMap<String, String> files, HashSet<String> newFiles,
+            HashSet<String> removedFiles) {
+        this.message = message;
+        this.date = date;
+        this.hashCode = hashCode;
+        this.parentID = parentID;
+        this.treeID = treeID;
+        this.files = files;
+        this.newFiles = newFiles;
+        this.removedFiles = removedFiles;
+    }
+    
+    /**
+     * Reads a commit record written by write.
+     * The parent is stored only as an ID, so reading never follows the commit history.
+     * Files are stored as the ID of a tree, or -1 for an empty tree. Records written
+     * before trees existed hold a full map of files instead, which is turned into a tree.
+     */
+    public static Commit read(DataInputStream in) throws IOException {
+        ObjectId hashCode = ObjectId.parse(in.readUTF());
+        String message = in.readUTF();
+        Date date = new Date(in.readLong());
+        ObjectId parentID = in.readBoolean() ? ObjectId.parse(in.readUTF()) : null;
+        int size = in.readInt();
+        String treeID = null;
+        HashMap<String, String> files = null;
+        if (size == TREE) {
+            treeID = in.readUTF();
+        } else if (size >= 0) {
+            files = new HashMap<String, String>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                files.put(in.readUTF(), in.readUTF());
+            }
+            treeID = Tree.update(null, files, new HashSet<String>());
+        }
+        HashSet<String> newFiles = readSet(in);
+        HashSet<String> removedFiles = readSet(in);
+        return new Commit(message, date, hashCode, parentID, treeID, files, newFiles,
+                removedFiles);
+    }
+    
+    /**
+     * Writes this commit as a flat record: its own fields, its parent's ID and the ID
+     * of its tree of files.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeUTF(hashCode.toString());
+        out.writeUTF(message);
+        out.writeLong(date.getTime());
+        out.writeBoolean(parentID != null);
+        if (parentID != null) {
+            out.writeUTF(parentID.toString());
+        }
+        if (treeID == null) {
+            out.writeInt(EMPTY);
+        } else {
+            out.writeInt(TREE);
+            out.writeUTF(treeID);
         }
-        for (String item : removeFiles) {
-            files.remove(item);
+        writeSet(out, newFiles);
+        writeSet(out, removedFiles);
+    }
+    
+    /**
+     * Reads a set of strings written by writeSet.
+     */
+    private static HashSet<String> readSet(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        HashSet<String> set = new HashSet<String>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            set.add(in.readUTF());
+        }
+        return set;
+    }
+    
+    /**
+     * Writes the size of the given set, followed by each of its strings.
+     */
+    private static void writeSet(DataOutputStream out, Set<String> set) throws IOException {
+        out.writeInt(set.size());
+        for (String item : set) {
+            out.writeUTF(item);
         }
     }
     
@@ -65,21 +157,69 @@ public class Commit implements Serializable {
         return new SimpleDateFormat("yyyy-MM-dd hh:mm:ss").format(date);
     }
     
+    /**
+     * Returns the time this commit was made, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return date.getTime();
+    }
+    
     /**
      * Returns parent of this commit.
+     * Commits only keep their parent's ID, so the parent is looked up in data,
+     * which loads it the first time it is needed.
      */
     public Commit getParent() {
-        return parent;
+        if (parentID == null || data == null) {
+            return null;
+        }
+        return data.getCommit(parentID.toString());
+    }
+    
+    /**
+     * Returns the commit ID of the parent of this commit, or null for the initial commit.
+     */
+    public String getParentID() {
+        return parentID == null ? null : parentID.toString();
+    }
+    
+    /**
+     * Sets the data used to look up this commit's parent.
+     */
+    public void attach(Data data) {
+        this.data = data;
     }
     
     /**
      * Returns a map of all files in this commit.
-     * Key = fileName, Value = commit ID containing the file.
+     * Key = fileName, Value = blob ID holding the file's contents.
+     * Built from the tree the first time it is needed.
      */
     public HashMap<String, String> getFiles() {
+        if (files == null) {
+            files = Tree.flatten(treeID);
+        }
         return files;
     }
     
+    /**
+     * Returns the blob ID of the given file in this commit, or null if it isn't tracked.
+     * Reads only the trees along the file's path.
+     */
+    public String getFile(String fileName) {
+        if (files != null) {
+            return files.get(fileName);
+        }
+        return Tree.lookup(treeID, fileName);
+    }
+    
+    /**
+     * Returns the ID of the tree of files in this commit, or null if it has no files.
+     */
+    public String getTreeID() {
+        return treeID;
+    }
+    
     /**
      * Returns a list of all new files added to this commit.
      */
@@ -95,53 +235,52 @@ public class Commit implements Serializable {
     }
     
     /**
-     * Adds a file to the commit, stored in the given commit ID (hash)
+     * Generates a SHA-256 hash of this commit's contents: its tree, parent, time and
+     * message, and the files it added and removed in sorted order. Since the tree ID is
+     * itself a hash of every file's blob ID, commits with different files always get
+     * different IDs, and a commit's ID can be checked against its record.
      */
-    public void addNewFile(String fileName, String hash) {
-        files.put(fileName, hash);
-        newFiles.add(fileName);
-    }
-    
-    /**
-     * Generates a SHA-256 hash, based on parent's hashcode, time, and message.
-     * Referenced in part from online for how to calculate SHA-256 hashcodes, 
-     * but wrote code on my own, Eclipse helped me make try/catch blocks
-     */
-    private String genHash() { 
-        long hCode = 1;
-        hCode = hashNum * hCode + (parent == null ? 0 : parent.hashCode());
-        hCode = hashNum * hCode + date.hashCode();
-        hCode = hashNum * hCode + message.hashCode();
+    private ObjectId genHash() { 
         try {
-            byte[] hash = MessageDigest.getInstance("SHA-256")
-                    .digest(String.valueOf(hCode).getBytes("UTF-8"));
-            Formatter formatter = new Formatter();
-            for (int i = 0; i < hash.length; i++) {
-                formatter.format("%02x", hash[i]);
-            }
-            String gennedHash = formatter.toString();
-            formatter.close();
-            return gennedHash;
-        } catch (NoSuchAlgorithmException e) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(treeID == null ? "" : treeID);
+            out.writeUTF(parentID == null ? "" : parentID.toString());
+            out.writeLong(date.getTime());
+            out.writeUTF(message);
+            writeSet(out, new TreeSet<String>(newFiles));
+            writeSet(out, new TreeSet<String>(removedFiles));
+            out.close();
+            return ObjectId.fromBytes(MessageDigest.getInstance("SHA-256")
+                    .digest(bytes.toByteArray()));
+        } catch (IOException e) {
             e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
+        } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
         }
-        return "Failed to calculate hash.";
+        return null;
     }
     
     /**
-     * Returns the saved hashCode.
+     * Returns the saved hashCode, as 64 hex digits.
      */
     public String getHash() {
+        return hashCode.toString();
+    }
+    
+    /**
+     * Returns the saved hashCode.
+     */
+    public ObjectId getID() {
         return hashCode;
     }
     
     /**
      * Changes the parent to the given parent. For use in rebase
-     * when making new commits.
+     * when making new commits. The commit's ID is generated again.
      */
     public void rebaseParent(Commit newParent) {
-        this.parent = newParent;
+        this.parentID = newParent == null ? null : newParent.getID();
+        this.hashCode = genHash();
     }
 }
@@ -0,0 +1,507 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+
+public class CommitGraph {
+    
+    private static final String GRAPH = ".gitlet" + File.separator + "commit-graph";
+    private static final String LOOKUP = GRAPH + ".idx";
+    
+    /**
+     * Each record is a commit ID as 32 bytes, the position of its parent's record
+     * (or -1), and its generation number.
+     */
+    private static final int ID_SIZE = 32;
+    private static final int RECORD_SIZE = ID_SIZE + 8;
+    
+    /**
+     * Sizes of the parts of the lookup table: the number of records it covers, and the
+     * fanout table.
+     */
+    private static final int LOOKUP_HEADER = 4;
+    private static final int FANOUT = 256 * 4;
+    
+    /**
+     * Once this many records have been saved after those the lookup table covers, the
+     * table is written again.
+     */
+    private static final int SORT_AFTER = 256;
+    
+    private ByteBuffer records;
+    private int savedCount;
+    private ByteBuffer lookup;
+    private int sortedCount;
+    private ArrayList<ObjectId> newIDs;
+    private ArrayList<Integer> newParents;
+    private ArrayList<Integer> newGenerations;
+    private HashMap<ObjectId, Integer> positions;
+    private ChangedPaths changedPaths;
+    
+    /**
+     * Initializes all class variables with the given saved records.
+     */
+    private CommitGraph(ByteBuffer records, ChangedPaths changedPaths) {
+        this.records = records;
+        this.changedPaths = changedPaths;
+        this.savedCount = records.capacity() / RECORD_SIZE;
+        this.newIDs = new ArrayList<ObjectId>();
+        this.newParents = new ArrayList<Integer>();
+        this.newGenerations = new ArrayList<Integer>();
+        this.positions = new HashMap<ObjectId, Integer>();
+        this.lookup = ByteBuffer.allocate(0);
+        this.sortedCount = 0;
+    }
+    
+    /**
+     * Maps the saved commit graph, or returns an empty graph if none was saved.
+     * Records are appended as commits are made, so every parent comes before its
+     * children and a commit's generation is one more than its parent's.
+     * The index of paths each commit changed is kept in the same order.
+     */
+    public static CommitGraph load() {
+        CommitGraph graph = new CommitGraph(mapRecords(), ChangedPaths.load());
+        graph.loadLookup();
+        return graph;
+    }
+    
+    /**
+     * Maps the lookup table, which holds the positions of the saved records sorted by
+     * commit ID, after a fanout table where entry b counts the records whose IDs start
+     * with a byte up to b. Records saved after those it covers are searched one by one,
+     * so the table is written again if it is missing, doesn't fit the records, or
+     * there are many such records.
+     */
+    private void loadLookup() {
+        mapLookup();
+        if (savedCount - sortedCount >= SORT_AFTER) {
+            writeLookup();
+        }
+    }
+    
+    /**
+     * Maps the saved lookup table, or uses an empty one if there is none or it doesn't
+     * fit the saved records.
+     */
+    private void mapLookup() {
+        lookup = ByteBuffer.allocate(0);
+        sortedCount = 0;
+        File lookupFile = new File(LOOKUP);
+        if (!lookupFile.exists()) {
+            return;
+        }
+        try {
+            FileInputStream in = new FileInputStream(lookupFile);
+            FileChannel channel = in.getChannel();
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.close();
+            int count = mapped.capacity() < LOOKUP_HEADER ? -1 : mapped.getInt(0);
+            if (count >= 0 && count <= savedCount
+                    && mapped.capacity() == LOOKUP_HEADER + FANOUT + (long) count * 4) {
+                lookup = mapped;
+                sortedCount = count;
+            }
+        } catch (IOException e) {
+            System.out.println("IOException while loading commit graph.");
+        }
+    }
+    
+    /**
+     * Returns a read-only mapping of the saved records, or an empty buffer if there
+     * are none.
+     */
+    private static ByteBuffer mapRecords() {
+        File graphFile = new File(GRAPH);
+        if (graphFile.exists()) {
+            try {
+                FileInputStream in = new FileInputStream(graphFile);
+                FileChannel channel = in.getChannel();
+                long size = channel.size() - channel.size() % RECORD_SIZE;
+                ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                in.close();
+                return records;
+            } catch (IOException e) {
+                System.out.println("IOException while loading commit graph.");
+            }
+        }
+        return ByteBuffer.allocate(0);
+    }
+    
+    /**
+     * Appends the records of commits added since the graph was last saved, then maps
+     * the records again, so that they are looked up like the others.
+     */
+    public void save() {
+        changedPaths.save();
+        if (newIDs.isEmpty()) {
+            return;
+        }
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(GRAPH, true)));
+            for (int i = 0; i < newIDs.size(); i++) {
+                writeRecord(out, newIDs.get(i), newParents.get(i), newGenerations.get(i));
+            }
+            out.close();
+        } catch (IOException e) {
+            System.out.println("IOException while saving commit graph.");
+            return;
+        }
+        records = mapRecords();
+        savedCount = records.capacity() / RECORD_SIZE;
+        newIDs.clear();
+        newParents.clear();
+        newGenerations.clear();
+        positions.clear();
+        if (savedCount - sortedCount >= SORT_AFTER) {
+            writeLookup();
+        }
+    }
+    
+    /**
+     * Adds a record for the given commit, whose parent must already be in the graph.
+     * If it isn't, or the index of changed paths is out of step with the graph, the
+     * graph predates some commits and is rebuilt from data instead, which includes
+     * the given commit.
+     */
+    public void add(Commit commit, Data data) {
+        if (changedPaths.count() != size()) {
+            rebuild(data);
+            return;
+        }
+        int parent = -1;
+        int generation = 1;
+        if (commit.getParentID() != null) {
+            parent = position(commit.getParentID());
+            if (parent < 0) {
+                rebuild(data);
+                return;
+            }
+            generation = generation(parent) + 1;
+        }
+        positions.put(commit.getID(), savedCount + newIDs.size());
+        newIDs.add(commit.getID());
+        newParents.add(parent);
+        newGenerations.add(generation);
+        changedPaths.add(commit);
+    }
+    
+    /**
+     * Returns the set of paths added or changed by any commit from head back to, but
+     * not including, base, as bits of path IDs. Test paths with isChanged. Each commit's
+     * paths are read from the index, so no commits are loaded.
+     */
+    public BitSet changedSince(String head, String base, Data data) {
+        if (changedPaths.count() != size() || position(head) < 0) {
+            rebuild(data);
+        }
+        BitSet changed = new BitSet();
+        int stop = position(base);
+        int current = position(head);
+        while (current >= 0 && current != stop) {
+            changedPaths.addChanged(current, changed);
+            current = parent(current);
+        }
+        return changed;
+    }
+    
+    /**
+     * Returns true if the given file is among the changed paths from changedSince.
+     */
+    public boolean isChanged(BitSet changed, String fileName) {
+        return changedPaths.isChanged(changed, fileName);
+    }
+    
+    /**
+     * Returns the number of commits in the graph.
+     */
+    private int size() {
+        return savedCount + newIDs.size();
+    }
+    
+    /**
+     * Returns the ID of the latest commit that both given commits descend from, or null
+     * if there is none. Both sides are walked back together, always stepping the one
+     * with the higher generation number, so only the commits made since the two
+     * histories split are visited.
+     */
+    public String findMergeBase(String first, String second, Data data) {
+        int a = position(first);
+        int b = position(second);
+        if (a < 0 || b < 0) {
+            rebuild(data);
+            a = position(first);
+            b = position(second);
+        }
+        while (a != b) {
+            if (a < 0 || b < 0) {
+                return null;
+            }
+            int generationA = generation(a);
+            int generationB = generation(b);
+            if (generationA >= generationB) {
+                a = parent(a);
+            }
+            if (generationB >= generationA) {
+                b = parent(b);
+            }
+        }
+        return a < 0 ? null : id(a);
+    }
+    
+    /**
+     * Returns the ID of the commit the given number of parents back from the given
+     * commit, or null if the history is shorter than that. Only the graph is read.
+     */
+    public String ancestor(String id, int steps, Data data) {
+        int current = position(id);
+        if (current < 0 && id != null) {
+            rebuild(data);
+            current = position(id);
+        }
+        for (int i = 0; i < steps && current >= 0; i++) {
+            current = parent(current);
+        }
+        return current < 0 ? null : id(current);
+    }
+    
+    /**
+     * Returns the position of the record of the given commit, or -1 if it isn't in the
+     * graph.
+     */
+    private int position(String id) {
+        return position(ObjectId.parse(id));
+    }
+    
+    /**
+     * Returns the position of the record of the given commit, or -1 if it isn't in the
+     * graph. Unsaved commits are kept in a map. Saved ones are found through the lookup
+     * table: the fanout table narrows the search to IDs with the same first byte, which
+     * are binary searched, so the cost doesn't grow with the distance back in history.
+     * Only the few records saved since the table was written are compared one by one.
+     */
+    private int position(ObjectId id) {
+        if (id == null) {
+            return -1;
+        }
+        Integer added = positions.get(id);
+        if (added != null) {
+            return added;
+        }
+        if (sortedCount > 0) {
+            int first = id.firstByte();
+            int low = first == 0 ? 0 : lookup.getInt(LOOKUP_HEADER + (first - 1) * 4);
+            int high = lookup.getInt(LOOKUP_HEADER + first * 4) - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int position = sorted(middle);
+                int comparison = id.compareTo(records, position * RECORD_SIZE);
+                if (comparison == 0) {
+                    return position;
+                } else if (comparison < 0) {
+                    high = middle - 1;
+                } else {
+                    low = middle + 1;
+                }
+            }
+        }
+        for (int i = savedCount - 1; i >= sortedCount; i--) {
+            if (id.matches(records, i * RECORD_SIZE)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the position of the record at the given place in the lookup table.
+     */
+    private int sorted(int index) {
+        return lookup.getInt(LOOKUP_HEADER + FANOUT + index * 4);
+    }
+    
+    /**
+     * Writes the lookup table again to cover every saved record, through a temporary
+     * file. The records it didn't cover are sorted and merged with the ones it did, so
+     * the table is never sorted from scratch once it exists.
+     */
+    private void writeLookup() {
+        final ObjectId[] tailIDs = new ObjectId[savedCount - sortedCount];
+        ArrayList<Integer> tail = new ArrayList<Integer>();
+        for (int i = sortedCount; i < savedCount; i++) {
+            tailIDs[i - sortedCount] = ObjectId.read(records, i * RECORD_SIZE);
+            tail.add(i);
+        }
+        final int from = sortedCount;
+        Collections.sort(tail, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return tailIDs[a - from].compareTo(tailIDs[b - from]);
+            }
+        });
+        
+        int[] merged = new int[savedCount];
+        int[] fanout = new int[256];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < savedCount; k++) {
+            if (j == tail.size() || (i < sortedCount && tailIDs[tail.get(j) - from]
+                    .compareTo(records, sorted(i) * RECORD_SIZE) > 0)) {
+                merged[k] = sorted(i++);
+            } else {
+                merged[k] = tail.get(j++);
+            }
+            fanout[records.get(merged[k] * RECORD_SIZE) & 0xff]++;
+        }
+        
+        File temp = null;
+        try {
+            File lookupFile = new File(LOOKUP);
+            temp = File.createTempFile("commit-graph", ".tmp", lookupFile.getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)));
+            out.writeInt(savedCount);
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                out.writeInt(total);
+            }
+            for (int position : merged) {
+                out.writeInt(position);
+            }
+            out.close();
+            MetadataStore.replace(temp, lookupFile);
+        } catch (IOException e) {
+            System.out.println("IOException while saving commit graph.");
+            if (temp != null) {
+                temp.delete();
+            }
+            return;
+        }
+        mapLookup();
+    }
+    
+    /**
+     * Returns the commit ID stored in the record at the given position.
+     */
+    private String id(int position) {
+        if (position >= savedCount) {
+            return newIDs.get(position - savedCount).toString();
+        }
+        return ObjectId.toHex(records, position * RECORD_SIZE);
+    }
+    
+    /**
+     * Returns the position of the parent of the record at the given position, or -1.
+     */
+    private int parent(int position) {
+        if (position >= savedCount) {
+            return newParents.get(position - savedCount);
+        }
+        return records.getInt(position * RECORD_SIZE + ID_SIZE);
+    }
+    
+    /**
+     * Returns the generation number of the record at the given position: 1 for an
+     * initial commit, and one more than its parent's otherwise.
+     */
+    private int generation(int position) {
+        if (position >= savedCount) {
+            return newGenerations.get(position - savedCount);
+        }
+        return records.getInt(position * RECORD_SIZE + ID_SIZE + 4);
+    }
+    
+    /**
+     * Rebuilds the whole graph, and the index of changed paths, from every commit in
+     * data and rewrites them. Used when the graph is missing commits, such as in a
+     * repository made before it existed.
+     */
+    private void rebuild(Data data) {
+        final HashMap<String, Integer> generations = new HashMap<String, Integer>();
+        HashMap<String, String> parents = new HashMap<String, String>();
+        ArrayList<String> ids = data.getCommitIDs();
+        for (String id : ids) {
+            parents.put(id, data.getCommit(id).getParentID());
+        }
+        for (String id : ids) {
+            ArrayList<String> chain = new ArrayList<String>();
+            String current = id;
+            while (current != null && !generations.containsKey(current)) {
+                chain.add(current);
+                current = parents.get(current);
+            }
+            int generation = current == null ? 0 : generations.get(current);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                generation++;
+                generations.put(chain.get(i), generation);
+            }
+        }
+        Collections.sort(ids, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return generations.get(a) - generations.get(b);
+            }
+        });
+        
+        ArrayList<Commit> commits = new ArrayList<Commit>();
+        for (String id : ids) {
+            commits.add(data.getCommit(id));
+        }
+        changedPaths.rebuild(commits);
+        
+        HashMap<ObjectId, Integer> rebuilt = new HashMap<ObjectId, Integer>();
+        File temp = null;
+        try {
+            File graphFile = new File(GRAPH);
+            temp = File.createTempFile("commit-graph", ".tmp", graphFile.getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)));
+            for (String id : ids) {
+                Integer parent = rebuilt.get(ObjectId.parse(parents.get(id)));
+                writeRecord(out, ObjectId.parse(id), parent == null ? -1 : parent,
+                        generations.get(id));
+                rebuilt.put(ObjectId.parse(id), rebuilt.size());
+            }
+            out.close();
+            new File(LOOKUP).delete();
+            MetadataStore.replace(temp, graphFile);
+        } catch (IOException e) {
+            System.out.println("IOException while saving commit graph.");
+            if (temp != null) {
+                temp.delete();
+            }
+            return;
+        }
+        records = mapRecords();
+        savedCount = records.capacity() / RECORD_SIZE;
+        newIDs.clear();
+        newParents.clear();
+        newGenerations.clear();
+        positions.clear();
+        lookup = ByteBuffer.allocate(0);
+        sortedCount = 0;
+        writeLookup();
+    }
+    
+    /**
+     * Writes one record: the commit ID as raw bytes, its parent's position and its
+     * generation number.
+     */
+    private static void writeRecord(DataOutputStream out, ObjectId id, int parent,
+            int generation) throws IOException {
+        id.write(out);
+        out.writeInt(parent);
+        out.writeInt(generation);
+    }
+}
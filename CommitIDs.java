@@ -0,0 +1,208 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+public class CommitIDs {
+    
+    private static final String IDS = ".gitlet" + File.separator + "commit-ids";
+    
+    /**
+     * The file starts with the number of sorted records as a long. Each record is a
+     * commit ID as 32 bytes; the sorted records come first, followed by IDs appended
+     * since the file was last sorted.
+     */
+    private static final int ID_SIZE = 32;
+    private static final int HEADER_SIZE = 8;
+    
+    /**
+     * Once this many IDs have been appended after the sorted records, the file is
+     * sorted again.
+     */
+    private static final int SORT_AFTER = 256;
+    
+    private final ByteBuffer records;
+    private final int sortedCount;
+    private final int count;
+    
+    /**
+     * Initializes all class variables with the given mapped file.
+     */
+    private CommitIDs(ByteBuffer records) {
+        this.records = records;
+        this.count = Math.max(0, (records.capacity() - HEADER_SIZE) / ID_SIZE);
+        this.sortedCount = count == 0 ? 0 : (int) Math.min(records.getLong(0), count);
+    }
+    
+    /**
+     * Maps the saved index of commit IDs. If there is none yet but there are commits,
+     * such as in a repository made before the index existed, it is first built from
+     * every commit in data.
+     */
+    public static CommitIDs load(Data data) {
+        try {
+            if (!new File(IDS).exists()) {
+                rebuild(data);
+            }
+            return new CommitIDs(map());
+        } catch (IOException e) {
+            System.out.println("IOException while loading commit IDs.");
+        }
+        return new CommitIDs(ByteBuffer.allocate(0));
+    }
+    
+    /**
+     * Returns a read-only mapping of the saved file.
+     */
+    private static ByteBuffer map() throws IOException {
+        FileInputStream in = new FileInputStream(IDS);
+        FileChannel channel = in.getChannel();
+        long size = channel.size() < HEADER_SIZE ? 0
+                : channel.size() - (channel.size() - HEADER_SIZE) % ID_SIZE;
+        ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        in.close();
+        return records;
+    }
+    
+    /**
+     * Appends the IDs of the given new commits, and sorts the file once enough IDs have
+     * been appended. If there is no index yet, it is built from every commit in data,
+     * which already includes the given commits, so nothing is appended.
+     */
+    public static void append(List<Commit> commits, Data data) {
+        if (commits.isEmpty()) {
+            return;
+        }
+        File idsFile = new File(IDS);
+        try {
+            if (idsFile.length() < HEADER_SIZE) {
+                rebuild(data);
+                return;
+            }
+            RandomAccessFile out = new RandomAccessFile(idsFile, "rw");
+            long length = out.length() - (out.length() - HEADER_SIZE) % ID_SIZE;
+            long sorted = out.readLong();
+            out.seek(length);
+            for (Commit commit : commits) {
+                commit.getID().write(out);
+            }
+            out.close();
+            if ((length - HEADER_SIZE) / ID_SIZE + commits.size() - sorted >= SORT_AFTER) {
+                resort();
+            }
+        } catch (IOException e) {
+            System.out.println("IOException while saving commit IDs.");
+        }
+    }
+    
+    /**
+     * Adds to result the IDs starting with the given lowercase hex prefix, stopping
+     * once result holds limit IDs. The sorted records are searched by binary search on
+     * the bytes of the prefix; only the few unsorted records are checked one by one.
+     */
+    public void find(String prefix, ArrayList<String> result, int limit) {
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < ID_SIZE * 2) {
+            padded.append('0');
+        }
+        ObjectId low = ObjectId.parse(padded.toString());
+        int start = 0;
+        int end = sortedCount;
+        while (start < end) {
+            int middle = (start + end) >>> 1;
+            if (low.compareTo(records, HEADER_SIZE + middle * ID_SIZE) > 0) {
+                start = middle + 1;
+            } else {
+                end = middle;
+            }
+        }
+        for (int i = start; i < sortedCount && result.size() < limit; i++) {
+            if (!matches(i, prefix)) {
+                break;
+            }
+            addOnce(id(i), result);
+        }
+        for (int i = sortedCount; i < count && result.size() < limit; i++) {
+            if (matches(i, prefix)) {
+                addOnce(id(i), result);
+            }
+        }
+    }
+    
+    /**
+     * Adds id to result unless it is already there.
+     */
+    private static void addOnce(String id, ArrayList<String> result) {
+        if (!result.contains(id)) {
+            result.add(id);
+        }
+    }
+    
+    /**
+     * Returns true if the record at the given position starts with the given hex prefix.
+     */
+    private boolean matches(int position, String prefix) {
+        int offset = HEADER_SIZE + position * ID_SIZE;
+        for (int i = 0; i < prefix.length(); i++) {
+            byte b = records.get(offset + i / 2);
+            int digit = i % 2 == 0 ? (b >> 4) & 0xf : b & 0xf;
+            if (digit != Character.digit(prefix.charAt(i), 16)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the ID at the given position.
+     */
+    private String id(int position) {
+        return ObjectId.toHex(records, HEADER_SIZE + position * ID_SIZE);
+    }
+    
+    /**
+     * Writes the index from scratch, with the ID of every commit in data.
+     */
+    private static void rebuild(Data data) throws IOException {
+        write(data.getCommitIDs());
+    }
+    
+    /**
+     * Reads every ID and writes them back sorted.
+     */
+    private static void resort() throws IOException {
+        CommitIDs index = new CommitIDs(map());
+        ArrayList<String> ids = new ArrayList<String>();
+        for (int i = 0; i < index.count; i++) {
+            ids.add(index.id(i));
+        }
+        write(ids);
+    }
+    
+    /**
+     * Replaces the index with the given IDs, sorted, through a temporary file. Hex IDs
+     * sort in the same order as their bytes.
+     */
+    private static void write(ArrayList<String> ids) throws IOException {
+        Collections.sort(ids);
+        File idsFile = new File(IDS);
+        File temp = File.createTempFile("commit-ids", ".tmp", idsFile.getParentFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)));
+        out.writeLong(ids.size());
+        for (String id : ids) {
+            out.write(ObjectId.toBytes(id));
+        }
+        out.close();
+        MetadataStore.replace(temp, idsFile);
+    }
+}
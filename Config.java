@@ -0,0 +1,52 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Properties;
+
+
+public class Config {
+    
+    private static final String CONFIG = ".gitlet" + File.separator + "config";
+    
+    private static Properties properties;
+    
+    /**
+     * Returns the value of the given setting in .gitlet/config, or defaultValue if
+     * it isn't set. The file holds one key=value setting per line.
+     */
+    public static synchronized String get(String key, String defaultValue) {
+        if (properties == null) {
+            properties = new Properties();
+            File configFile = new File(CONFIG);
+            if (configFile.exists()) {
+                try {
+                    FileReader reader = new FileReader(configFile);
+                    properties.load(reader);
+                    reader.close();
+                } catch (IOException e) {
+                    System.out.println("IOException while loading config.");
+                }
+            }
+        }
+        return properties.getProperty(key, defaultValue).trim();
+    }
+    
+    /**
+     * Forgets the settings read so far, so that the file is read again on next use.
+     */
+    public static synchronized void forget() {
+        properties = null;
+    }
+    
+    /**
+     * Returns the value of the given numeric setting, or defaultValue if it isn't set
+     * or isn't a number.
+     */
+    public static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
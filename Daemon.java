@@ -0,0 +1,273 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class Daemon {
+    
+    static final String SOCKET = ".gitlet" + File.separator + "daemon.sock";
+    
+    /**
+     * Request that stops the daemon instead of running a command.
+     */
+    static final String STOP = "stop-daemon";
+    
+    /**
+     * A client whose read or write waits this long is disconnected, so that it can't
+     * hold up the clients behind it.
+     */
+    private static final long CLIENT_TIMEOUT_SECONDS = 60;
+    
+    private final Repository repo;
+    private final ReentrantLock commands;
+    private final ScheduledThreadPoolExecutor timer;
+    private final PrintStream console;
+    private final InputStream consoleIn;
+    private ServerSocketChannel server;
+    
+    /**
+     * Initializes all class variables. The daemon runs commands against the given
+     * repository, keeping its data loaded between them.
+     */
+    private Daemon(Repository repo) {
+        this.repo = repo;
+        this.commands = new ReentrantLock(true);
+        this.timer = new ScheduledThreadPoolExecutor(1);
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.console = System.out;
+        this.consoleIn = System.in;
+        this.server = null;
+    }
+    
+    /**
+     * Serves commands for the repository in the current directory over the Unix domain
+     * socket .gitlet/daemon.sock until a client sends stop-daemon. Each client sends
+     * the number of arguments and each argument as written by DataOutputStream, then
+     * anything it reads from its own input, such as the answer to a confirmation; the
+     * command's output is streamed back as it is printed, and the connection is closed
+     * once the command has finished. Client is such a client.
+     * The repository's data, the commit graph and other indexes stay loaded between
+     * commands, and each command saves only what it changed, as it would on its own.
+     * Clients are served on their own threads, but commands run one at a time, each
+     * under the repository lock, so other processes can still use the repository.
+     * With --watch, the working directory is also watched for changes (see TreeWatcher),
+     * so that status only checks the files that changed since the last one.
+     */
+    public static void serve(Repository repo, String[] args) {
+        if (!MetadataStore.exists()) {
+            System.out.println("Not in an initialized gitlet directory."); return;
+        }
+        boolean watch = args.length > 1 && args[1].equals("--watch");
+        if (args.length > 1 && !watch) {
+            System.out.println("Unrecognized daemon option " + args[1] + "."); return;
+        }
+        File socketFile = new File(SOCKET);
+        if (socketFile.exists()) {
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(SOCKET)).close();
+                System.out.println("A daemon is already running."); return;
+            } catch (IOException e) {
+                socketFile.delete();
+            }
+        }
+        if (watch) {
+            repo.setWatcher(TreeWatcher.start());
+            if (repo.getWatcher() == null) {
+                System.out.println("Could not watch the working directory."); return;
+            }
+        }
+        Daemon daemon = new Daemon(repo);
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            daemon.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            daemon.server.bind(UnixDomainSocketAddress.of(SOCKET));
+            System.out.println("Daemon listening on " + SOCKET + ".");
+            while (true) {
+                SocketChannel client = daemon.server.accept();
+                pool.submit(daemon.new Session(client));
+            }
+        } catch (ClosedChannelException e) {
+            System.out.println("Daemon stopped.");
+        } catch (IOException e) {
+            System.out.println("IOException while serving commands.");
+        } finally {
+            pool.shutdown();
+            daemon.timer.shutdownNow();
+            socketFile.delete();
+            if (repo.getWatcher() != null) {
+                repo.getWatcher().close();
+            }
+        }
+    }
+    
+    /**
+     * Runs the command in args for a client, with its input and output in place of the
+     * console's. Commands print through System.out and read through System.in, so
+     * only one may run at a time. A command that asks for confirmation asks before
+     * waiting for its turn, so a client that never answers holds up no other client.
+     * If the command fails in any way, the repository's data is dropped, since the
+     * command may have left it half changed.
+     */
+    private void run(String[] args, InputStream in, OutputStream out) {
+        PrintStream output = new PrintStream(out, true);
+        try {
+            if (args.length > 0 && Git.isDangerous(args) && !Git.checkDangerous(in, output)) {
+                return;
+            }
+        } catch (RuntimeException e) {
+            output.println("No answer given, so aborting.");
+            return;
+        }
+        commands.lock();
+        System.setOut(output);
+        System.setIn(in);
+        try {
+            if (args.length == 0) {
+                System.out.println("Please enter a command.");
+            } else if (args[0].equals(STOP)) {
+                System.out.println("Daemon stopping.");
+                server.close();
+            } else if (args[0].equals("daemon") || args[0].equals("init")) {
+                System.out.println("A daemon is already running.");
+            } else {
+                Config.forget();
+                repo.setReadOnly(Git.isReadOnly(args[0]));
+                Git.run(repo, args);
+                repo.close();
+            }
+        } catch (IOException e) {
+            System.out.println("IOException while stopping daemon.");
+        } catch (Throwable e) {
+            System.out.println("Command failed: " + e + ".");
+            e.printStackTrace(console);
+            repo.abandon();
+        } finally {
+            output.flush();
+            System.setOut(console);
+            System.setIn(consoleIn);
+            commands.unlock();
+        }
+    }
+    
+    /**
+     * Closes the client's connection unless the returned task is cancelled within the
+     * time limit. Any read or write then waiting on the connection fails.
+     */
+    private ScheduledFuture<?> disconnectLater(final SocketChannel client) {
+        return timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, CLIENT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * A client's input, which disconnects the client if a read waits too long.
+     */
+    private class ClientInput extends FilterInputStream {
+        private final SocketChannel client;
+        
+        ClientInput(SocketChannel client) {
+            super(Channels.newInputStream(client));
+            this.client = client;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            ScheduledFuture<?> disconnect = disconnectLater(client);
+            try {
+                return super.read();
+            } finally {
+                disconnect.cancel(false);
+            }
+        }
+        
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            ScheduledFuture<?> disconnect = disconnectLater(client);
+            try {
+                return super.read(bytes, offset, length);
+            } finally {
+                disconnect.cancel(false);
+            }
+        }
+    }
+    
+    /**
+     * A client's output, which disconnects the client if a write waits too long, such
+     * as when the client has stopped reading.
+     */
+    private class ClientOutput extends FilterOutputStream {
+        private final SocketChannel client;
+        
+        ClientOutput(SocketChannel client) {
+            super(Channels.newOutputStream(client));
+            this.client = client;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            ScheduledFuture<?> disconnect = disconnectLater(client);
+            try {
+                out.write(bytes, offset, length);
+            } finally {
+                disconnect.cancel(false);
+            }
+        }
+    }
+    
+    /**
+     * Reads one client's command, runs it and closes the connection.
+     */
+    private class Session implements Runnable {
+        private final SocketChannel client;
+        
+        Session(SocketChannel client) {
+            this.client = client;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new ClientInput(client)));
+                String[] args = new String[in.readInt()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = in.readUTF();
+                }
+                Daemon.this.run(args, in, new ClientOutput(client));
+                client.close();
+            } catch (IOException e) {
+                console.println("IOException while serving a client.");
+            }
+        }
+    }
+}
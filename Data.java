@@ -1,34 +1,182 @@
-import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 
 
-@SuppressWarnings("serial")
-public class Data implements Serializable {
-    private HashMap<String, Commit> commits;
+public class Data {
+    private HashMap<ObjectId, Commit> commits;
+    private ArrayList<Commit> newCommits;
     private HashMap<String, Branch> branches;
-    private Branch currBranch;
+    private HashMap<String, String> savedRefs;
+    private String currBranch;
+    private String savedCurrBranch;
     private HashSet<String> remove;
     private HashSet<String> stage;
-    private HashMap<String, HashSet<String>> commitMessages;
+    private boolean stageChanged;
+    private HashMap<String, HashSet<ObjectId>> commitMessages;
+    private Index index;
+    private CommitGraph commitGraph;
+    private MessageIndex messageIndex;
+    private CommitIDs commitIDs;
     
     /**
      * Initiates all class variables.
      */
     public Data() {
-        commits = new HashMap<String, Commit>();
+        commits = new HashMap<ObjectId, Commit>();
+        newCommits = new ArrayList<Commit>();
         branches = new HashMap<String, Branch>();
+        savedRefs = new HashMap<String, String>();
         currBranch = null;
+        savedCurrBranch = null;
         remove = new HashSet<String>();
         stage = new HashSet<String>();
-        commitMessages = new HashMap<String, HashSet<String>>();
+        stageChanged = false;
+        commitMessages = null;
+        index = null;
+        commitGraph = null;
+        messageIndex = null;
+        commitIDs = null;
     }
     
     /**
-     * Returns all saved commits.
+     * Loads the current branch, all branch heads, the stage and files marked for removal.
+     * Commits are not read until they are needed.
      */
-    public HashMap<String, Commit> getCommits() {
-        return commits;
+    public static Data load() {
+        Data data = new Data();
+        HashMap<String, String> refs = MetadataStore.readRefs();
+        for (String name : refs.keySet()) {
+            data.branches.put(name, new Branch(name, refs.get(name), data));
+        }
+        data.savedRefs.putAll(refs);
+        data.currBranch = MetadataStore.readHead();
+        data.savedCurrBranch = data.currBranch;
+        data.stage = MetadataStore.readStage();
+        data.remove = MetadataStore.readRemove();
+        return data;
+    }
+    
+    /**
+     * Saves everything that changed since this data was loaded:
+     * appends new commits, their times and their IDs, and rewrites only the branch heads,
+     * current branch, stage and removal list that were modified. The mapped index of
+     * commit IDs no longer covers the saved commits, so it is mapped again on next use.
+     */
+    public void save() {
+        for (Commit commit : newCommits) {
+            MetadataStore.writeCommit(commit);
+        }
+        TimeIndex.append(newCommits, this);
+        CommitIDs.append(newCommits, this);
+        newCommits.clear();
+        commitIDs = null;
+        if (commitGraph != null) {
+            commitGraph.save();
+        }
+        for (Branch branch : branches.values()) {
+            String headID = branch.getHeadID();
+            if (!savedRefs.containsKey(branch.getName())
+                    || !equal(savedRefs.get(branch.getName()), headID)) {
+                MetadataStore.writeRef(branch.getName(), headID);
+                savedRefs.put(branch.getName(), headID);
+            }
+        }
+        for (String name : new ArrayList<String>(savedRefs.keySet())) {
+            if (!branches.containsKey(name)) {
+                MetadataStore.deleteRef(name);
+                savedRefs.remove(name);
+            }
+        }
+        if (!equal(currBranch, savedCurrBranch)) {
+            MetadataStore.writeHead(currBranch);
+            savedCurrBranch = currBranch;
+        }
+        if (stageChanged) {
+            MetadataStore.writeStage(stage);
+            MetadataStore.writeRemove(remove);
+            stageChanged = false;
+        }
+        if (index != null) {
+            index.save();
+        }
+    }
+    
+    /**
+     * Returns the commit with the given ID, loading it if needed.
+     * Returns null if no such commit exists.
+     */
+    public Commit getCommit(String commitID) {
+        ObjectId id = ObjectId.parse(commitID);
+        if (id == null) {
+            return null;
+        }
+        Commit commit = commits.get(id);
+        if (commit == null) {
+            commit = MetadataStore.readCommit(commitID);
+            if (commit != null) {
+                commit.attach(this);
+                commits.put(id, commit);
+            }
+        }
+        return commit;
+    }
+    
+    /**
+     * Returns the commit with the given ID without keeping it in memory, for commands
+     * that read through many commits once, such as log. Returns null if no such commit
+     * exists.
+     */
+    public Commit readCommit(String commitID) {
+        ObjectId id = ObjectId.parse(commitID);
+        if (id == null) {
+            return null;
+        }
+        Commit commit = commits.get(id);
+        if (commit == null) {
+            commit = MetadataStore.readCommit(commitID);
+            if (commit != null) {
+                commit.attach(this);
+            }
+        }
+        return commit;
+    }
+    
+    /**
+     * Returns true if a commit with the given ID exists.
+     */
+    public boolean hasCommit(String commitID) {
+        ObjectId id = ObjectId.parse(commitID);
+        return id != null && (commits.containsKey(id) || MetadataStore.hasCommit(commitID));
+    }
+    
+    /**
+     * Returns up to limit IDs of commits starting with the given lowercase hex prefix,
+     * looked up in the sorted index of commit IDs, which is mapped on first use.
+     */
+    public ArrayList<String> findCommitIDs(String prefix, int limit) {
+        if (commitIDs == null) {
+            commitIDs = CommitIDs.load(this);
+        }
+        ArrayList<String> result = new ArrayList<String>();
+        for (Commit commit : newCommits) {
+            if (commit.getHash().startsWith(prefix) && result.size() < limit) {
+                result.add(commit.getHash());
+            }
+        }
+        commitIDs.find(prefix, result, limit);
+        return result;
+    }
+    
+    /**
+     * Returns the IDs of all saved commits.
+     */
+    public ArrayList<String> getCommitIDs() {
+        HashSet<String> ids = new HashSet<String>(MetadataStore.listCommits());
+        for (ObjectId id : commits.keySet()) {
+            ids.add(id.toString());
+        }
+        return new ArrayList<String>(ids);
     }
     
     /**
@@ -42,7 +190,7 @@ public class Data implements Serializable {
      * Returns current branch.
      */
     public Branch getCurrBranch() {
-        return currBranch;
+        return branches.get(currBranch);
     }
     
     /**
@@ -59,20 +207,56 @@ public class Data implements Serializable {
         return stage;
     }
     
+    /**
+     * Returns the index of stat data and content hashes of files in the working directory.
+     * Read from disk on first use.
+     */
+    public Index getIndex() {
+        if (index == null) {
+            index = Index.load();
+        }
+        return index;
+    }
+    
+    /**
+     * Returns the graph of commit parents and generation numbers, used to find where
+     * branches split. Mapped from disk on first use.
+     */
+    public CommitGraph getCommitGraph() {
+        if (commitGraph == null) {
+            commitGraph = CommitGraph.load();
+        }
+        return commitGraph;
+    }
+    
     /**
      * Returns map of commit messages mapped to a set of commit IDs with that message.
-     * Used for use in find command.
+     * Used for use in find command. Read from the message log on first use.
      */
-    public HashMap<String, HashSet<String>> getCommitMessages() {
+    public HashMap<String, HashSet<ObjectId>> getCommitMessages() {
+        if (commitMessages == null) {
+            commitMessages = MetadataStore.readMessages();
+        }
         return commitMessages;
     }
     
+    /**
+     * Returns the inverted index of commit message tokens, used by find to search
+     * messages. Read from disk on first use.
+     */
+    public MessageIndex getMessageIndex() {
+        if (messageIndex == null) {
+            messageIndex = MessageIndex.load();
+        }
+        return messageIndex;
+    }
+    
     /**
      * Sets the current branch to the given branch name.
      * Assumes given branch exists.
      */
     public void setCurrBranch(String branchName) {
-        currBranch = branches.get(branchName);
+        currBranch = branchName;
     }
     
     /**
@@ -84,6 +268,7 @@ public class Data implements Serializable {
         if (remove.contains(fileName)) {
             remove.remove(fileName);
         }
+        stageChanged = true;
     }
     
     /**
@@ -95,6 +280,7 @@ public class Data implements Serializable {
         if (stage.contains(fileName)) {
             stage.remove(fileName);
         }
+        stageChanged = true;
     }
     
     /**
@@ -103,6 +289,7 @@ public class Data implements Serializable {
     public void clear() {
         stage.clear();
         remove.clear();
+        stageChanged = true;
     }
     
     /**
@@ -110,6 +297,7 @@ public class Data implements Serializable {
      * Assumes branch does not previously exist.
      */
     public void addBranch(Branch branch) {
+        branch.attach(this);
         branches.put(branch.getName(), branch);
     }
     
@@ -122,17 +310,35 @@ public class Data implements Serializable {
     }
     
     /**
-     * Adds a new commit to the commit map.
-     * Adds commit ID to map of commit messages for more efficient runtime use in find command.
+     * Adds a new commit to the commit map, to be appended to the store on save.
+     * Also adds it to the commit graph.
+     * Adds commit ID to map of commit messages for more efficient runtime use in find command,
+     * and to the message index if it is loaded.
      */
     public void addCommit(Commit commit) {
-        commits.put(commit.getHash(), commit);
+        commit.attach(this);
+        commits.put(commit.getID(), commit);
+        newCommits.add(commit);
+        getCommitGraph().add(commit, this);
+        if (messageIndex != null) {
+            messageIndex.add(commit.getHash(), commit.getMessage());
+        }
+        if (commitMessages == null) {
+            return;
+        }
         if (commitMessages.containsKey(commit.getMessage())) {
-            commitMessages.get(commit.getMessage()).add(commit.getHash());
+            commitMessages.get(commit.getMessage()).add(commit.getID());
         } else {
-            HashSet<String> temp = new HashSet<String>();
-            temp.add(commit.getHash());
+            HashSet<ObjectId> temp = new HashSet<ObjectId>();
+            temp.add(commit.getID());
             commitMessages.put(commit.getMessage(), temp);
         }
     }
+    
+    /**
+     * Returns true if both strings are null or equal.
+     */
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
 }
@@ -0,0 +1,140 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+
+public class Delta {
+    
+    /**
+     * Length of the blocks of the base that are indexed. Matches shorter than this
+     * are not found, and cost more to encode than to insert anyway.
+     */
+    private static final int BLOCK = 16;
+    private static final int PRIME = 31;
+    
+    private static final byte COPY = 0;
+    private static final byte INSERT = 1;
+    
+    /**
+     * Returns a delta that rebuilds target from base. The delta is a list of
+     * instructions: COPY (offset, length) copies a range of base, and INSERT (length,
+     * bytes) adds new bytes. Every block of base is indexed by a rolling hash, and the
+     * target is scanned for matching blocks, which are then extended as far as they go.
+     */
+    public static byte[] create(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<Integer, Integer>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            int hash = hash(base, i);
+            if (!blocks.containsKey(hash)) {
+                blocks.put(hash, i);
+            }
+        }
+        
+        int power = 1;
+        for (int i = 1; i < BLOCK; i++) {
+            power *= PRIME;
+        }
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(delta);
+        try {
+            int insertStart = 0;
+            int i = 0;
+            int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (i + BLOCK <= target.length) {
+                Integer match = blocks.get(hash);
+                if (match != null && matches(base, match, target, i)) {
+                    int length = BLOCK;
+                    while (match + length < base.length && i + length < target.length
+                            && base[match + length] == target[i + length]) {
+                        length++;
+                    }
+                    writeInsert(out, target, insertStart, i);
+                    out.writeByte(COPY);
+                    out.writeInt(match);
+                    out.writeInt(length);
+                    i += length;
+                    insertStart = i;
+                    if (i + BLOCK <= target.length) {
+                        hash = hash(target, i);
+                    }
+                } else {
+                    if (i + BLOCK < target.length) {
+                        hash = (hash - target[i] * power) * PRIME + target[i + BLOCK];
+                    }
+                    i++;
+                }
+            }
+            writeInsert(out, target, insertStart, target.length);
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return delta.toByteArray();
+    }
+    
+    /**
+     * Returns the result of applying the given delta, made by create, to base.
+     */
+    public static byte[] apply(byte[] base, byte[] delta, long size) throws IOException {
+        byte[] result = new byte[(int) size];
+        int position = 0;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        while (in.available() > 0) {
+            byte op = in.readByte();
+            if (op == COPY) {
+                int offset = in.readInt();
+                int length = in.readInt();
+                System.arraycopy(base, offset, result, position, length);
+                position += length;
+            } else {
+                int length = in.readInt();
+                in.readFully(result, position, length);
+                position += length;
+            }
+        }
+        if (position != result.length) {
+            throw new IOException("Delta does not match its base.");
+        }
+        return result;
+    }
+    
+    /**
+     * Writes an INSERT instruction for target[start, end), if that range isn't empty.
+     */
+    private static void writeInsert(DataOutputStream out, byte[] target, int start, int end)
+            throws IOException {
+        if (end > start) {
+            out.writeByte(INSERT);
+            out.writeInt(end - start);
+            out.write(target, start, end - start);
+        }
+    }
+    
+    /**
+     * Returns the polynomial hash of the block of bytes starting at offset.
+     * Can be rolled forward one byte at a time, as create does.
+     */
+    private static int hash(byte[] bytes, int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK; i++) {
+            hash = hash * PRIME + bytes[i];
+        }
+        return hash;
+    }
+    
+    /**
+     * Returns true if the blocks of base and target starting at the given offsets
+     * are equal.
+     */
+    private static boolean matches(byte[] base, int baseOffset, byte[] target, int offset) {
+        for (int i = 0; i < BLOCK; i++) {
+            if (base[baseOffset + i] != target[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
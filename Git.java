@@ -1,12 +1,13 @@
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class Git {
     
@@ -18,70 +19,109 @@ public class Git {
         if (args.length == 0) {
             System.out.println("Please enter a command."); return;
         }
+        if (isDangerous(args) && !checkDangerous(System.in, System.out)) {
+            return;
+        }
+        Repository repo = new Repository(isReadOnly(args[0]));
+        run(repo, args);
+        repo.close();
+    }
+    
+    /**
+     * Returns true if the command in args may overwrite files in the working directory,
+     * so the user is asked to confirm it first. Commands missing their arguments are
+     * rejected without asking. The question is asked before the repository is locked,
+     * so an unanswered prompt never holds up other commands.
+     */
+    static boolean isDangerous(String[] args) {
+        String command = args[0];
+        return args.length >= 2 && (command.equals("checkout") || command.equals("reset")
+                || command.equals("merge") || command.equals("rebase")
+                || command.equals("i-rebase"));
+    }
+    
+    /**
+     * Returns true if the given command never changes the repository, so it can run
+     * alongside other read-only commands under a shared lock.
+     */
+    static boolean isReadOnly(String command) {
+        return command.equals("log") || command.equals("global-log")
+                || command.equals("status") || command.equals("find");
+    }
+    
+    /**
+     * Executes the command in args against the given repository.
+     * All commands share the repository's data, so it is only loaded once.
+     */
+    static void run(Repository repo, String[] args) {
         switch (args[0]) {
             case "init":
-                initialize(); break;
+                initialize(repo); break;
             case "add":
                 if (args.length < 2) {
                     System.out.println("Did not enter enough arguments."); break;
                 }
-                add(args[1]); break;
+                add(repo.getData(), args[1]); break;
             case "commit":
                 if (args.length < 2) {
                     System.out.println("Please enter a commit message."); break;
                 } 
-                commit(args[1]); break;
+                commit(repo.getData(), args[1]); break;
             case "log":
-                log(); break;
+                log(repo.getData(), args); break;
             case "global-log":
-                globalLog(); break;
+                globalLog(repo.getData(), args); break;
+            case "daemon":
+                Daemon.serve(repo, args); break;
             case "status":
-                status(); break;
+                status(repo.getData(), repo.getWatcher()); break;
             case "checkout":
                 if (args.length < 2) {
                     System.out.println("Did not enter enough arguments."); break;
                 } 
-                checkout(args); break;
+                checkout(repo.getData(), args); break;
             case "reset":
                 if (args.length < 2) {
                     System.out.println("Did not enter enough arguments."); break;
                 }
-                reset(args[1]); break;
+                reset(repo.getData(), args[1]); break;
             case "branch":
                 if (args.length < 2) {
                     System.out.println("Did not enter enough arguments."); break;
                 } 
-                newBranch(args[1]); break;
+                newBranch(repo.getData(), args[1]); break;
             case "rm":
                 if (args.length < 2) {
                     System.out.println("Did not enter enough arguments."); break;
                 } 
-                remove(args[1]); break;
+                remove(repo.getData(), args[1]); break;
             case "find":
                 if (args.length < 2) {
                     System.out.println("Did not enter enough arguments."); break;
                 } 
-                find(args[1]); break;
+                find(repo.getData(), args); break;
             case "rm-branch":
                 if (args.length < 2) {
                     System.out.println("Did not enter enough arguments."); break;
                 } 
-                removeBranch(args[1]); break;
+                removeBranch(repo.getData(), args[1]); break;
             case "merge":
                 if (args.length < 2) {
                     System.out.println("Did not enter enough arguments."); break;
                 } 
-                merge(args[1]); break;
+                merge(repo.getData(), args[1]); break;
             case "rebase":
                 if (args.length < 2) {
                     System.out.println("Did not enter enough arguments."); break;
                 } 
-                rebase(args[1], false); break;
+                rebase(repo.getData(), args[1], false); break;
             case "i-rebase":
                 if (args.length < 2) {
                     System.out.println("Did not enter enough arguments."); break;
                 } 
-                rebase(args[1], true); break;
+                rebase(repo.getData(), args[1], true); break;
+            case "pack":
+                pack(repo.getData()); break;
             default:
                 System.out.println("Unrecognized command.");
         }
@@ -91,44 +131,33 @@ public class Git {
      * Initializes gitlet.
      * Creates .gitlet folder and master branch, commits empty initial commit.
      */
-    private static void initialize() {
-        if (new File(".gitlet").exists()) {
+    private static void initialize(Repository repo) {
+        if (repo.exists()) {
             System.out.println("A gitlet version control system already exists "
                     + "in the current directory."); 
             return;
         }
-        new File(".gitlet").mkdir();
-        Data data = new Data();        
+        Data data = repo.create();
         Branch branch = new Branch("master");
         data.addBranch(branch);
         data.setCurrBranch("master");
-        saveData(data);
         
-        commit("initial commit");
-    }
-    
-    /**
-     * Returns the current branch.
-     */
-    private static Branch getCurrBranch() {
-        return loadData().getCurrBranch();
+        commit(data, "initial commit");
     }
     
     /**
      * Adds a file to the stage if file exists and has been modified.
      * Removes file from removed file list.
      */
-    private static void add(String fileName) {
+    private static void add(Data data, String fileName) {
         if (!new File(fileName).exists()) {
             System.out.println("File does not exist."); return;
         }
-        if (!Tools.checkFileChanged(fileName, getCurrBranch().getHead()
-                .getFiles().get(fileName))) {
+        if (!Tools.checkFileChanged(fileName, data.getCurrBranch().getHead()
+                .getFile(fileName), data.getIndex())) {
             System.out.println("File has not been modified since the last commit."); return;
         } 
-        Data data = loadData();
         data.add(fileName);
-        saveData(data);
     }
     
     /**
@@ -136,76 +165,159 @@ public class Git {
      * Checks to make sure there is a reason to remove the file:
      * Most recent commit doesn't contain it, and it is not staged.
      */
-    private static void remove(String fileName) {
-        Data data = loadData();
-        if (!getCurrBranch().getHead().getFiles().keySet().contains(fileName) 
+    private static void remove(Data data, String fileName) {
+        if (data.getCurrBranch().getHead().getFile(fileName) == null 
                 && !data.getStagedFiles().contains(fileName)) {
             System.out.println("No reason to remove the file."); return;
         }
         data.remove(fileName);
-        saveData(data);
     }
     
     /**
      * Creates a new commit using staged files, inherited files, and message.
      */
-    private static void commit(String message) {
-        Data data = loadData();
+    private static void commit(Data data, String message) {
         data.getCurrBranch().commit(message, data);
-        saveData(data);
     }
     
     /**
-     * Prints log of all previous commits in current branch history.
+     * Prints log of all previous commits in current branch history,
+     * limited by the options after the command (see LogFilter).
      */
-    private static void log() {
-        getCurrBranch().log();
+    private static void log(Data data, String[] args) {
+        LogFilter filter = LogFilter.parse(args, 1);
+        if (filter == null) {
+            return;
+        }
+        if (filter.isReverse()) {
+            System.out.println("--reverse is only supported by global-log."); return;
+        }
+        data.getCurrBranch().log(filter);
     }
     
     /**
-     * Prints log of all commits in the commit map.
+     * Prints log of all commits, newest first, or oldest first with --reverse, limited
+     * by the options after the command (see LogFilter). Commits are found through the
+     * index of commits by time: the range is found by binary search, skipped commits
+     * are jumped over, and each commit is read, printed and dropped in turn until the
+     * limit is reached.
      */
-    private static void globalLog() {
-        HashMap<String, Commit> commits = loadData().getCommits();
-        for (String item : commits.keySet()) {
-            System.out.println("====");
-            System.out.println("Commit " + commits.get(item).getHash() + ".");
-            System.out.println(commits.get(item).getTime());
-            System.out.println(commits.get(item).getMessage());
-            System.out.println();
+    private static void globalLog(Data data, String[] args) {
+        LogFilter filter = LogFilter.parse(args, 1);
+        if (filter == null) {
+            return;
+        }
+        TimeIndex times = TimeIndex.load(data);
+        int first = times.firstAtOrAfter(filter.getSince());
+        int last = filter.getUntil() == Long.MAX_VALUE ? times.count() - 1
+                : times.firstAtOrAfter(filter.getUntil() + 1) - 1;
+        int skip = filter.getSkip();
+        filter.skipAll();
+        if (filter.isReverse()) {
+            int start = skip > last - first ? last + 1 : first + skip;
+            for (int i = start; i <= last && !filter.isDone(); i++) {
+                filter.offer(data.readCommit(times.id(i)));
+            }
+        } else {
+            int start = skip > last - first ? first - 1 : last - skip;
+            for (int i = start; i >= first && !filter.isDone(); i--) {
+                filter.offer(data.readCommit(times.id(i)));
+            }
         }
     }
     
     /**
      * Prints status of all current branches, list of staged files, 
-     * and list of files marked for removal
+     * list of files marked for removal, list of tracked files that
+     * were modified or deleted but not staged, and list of untracked files.
+     * The working directory is scanned in parallel by TreeScanner, or, in a daemon
+     * started with --watch, only the files its watcher saw change are checked.
      */
-    private static void status() {
+    private static void status(Data data, TreeWatcher watcher) {
         System.out.println("=== Branches ===");
-        for (String item : loadData().getBranches().keySet()) {
-            if (item.equals(getCurrBranch().getName())) {
+        String currBranch = data.getCurrBranch().getName();
+        for (String item : new TreeSet<String>(data.getBranches().keySet())) {
+            if (item.equals(currBranch)) {
                 System.out.print("*");
             }
             System.out.println(item);
         }
         System.out.println();
         System.out.println("=== Staged Files ===");
-        for (String item : loadData().getStagedFiles()) {
+        for (String item : new TreeSet<String>(data.getStagedFiles())) {
             System.out.println(item);
         }
         System.out.println();
         System.out.println("=== Files Marked for Removal ===");
-        for (String item : loadData().getRemoveFiles()) {
+        for (String item : new TreeSet<String>(data.getRemoveFiles())) {
+            System.out.println(item);
+        }
+        
+        TreeScanner scanner = new TreeScanner(data.getCurrBranch().getHead().getFiles(),
+                data.getStagedFiles(), data.getRemoveFiles(), data.getIndex());
+        if (watcher == null) {
+            scanner.scan();
+        } else {
+            scanner = scanner.scan(watcher);
+        }
+        TreeMap<String, String> modifications = new TreeMap<String, String>();
+        for (String item : scanner.getModified()) {
+            modifications.put(item, " (modified)");
+        }
+        for (String item : scanner.getDeleted()) {
+            modifications.put(item, " (deleted)");
+        }
+        System.out.println();
+        System.out.println("=== Modifications Not Staged For Commit ===");
+        for (String item : modifications.keySet()) {
+            System.out.println(item + modifications.get(item));
+        }
+        System.out.println();
+        System.out.println("=== Untracked Files ===");
+        for (String item : scanner.getUntracked()) {
             System.out.println(item);
         }
     }
     
     /**
-     * Prints all commit IDs with the given message.
+     * Prints all commit IDs with the given message. With an option, searches the
+     * message index instead: -w <words> finds messages containing every word, -p <prefix>
+     * finds messages with a word starting with each word given, -s <text> finds messages
+     * containing the text, ignoring case, and -r <regex> finds messages matching the
+     * regular expression. Anything else, such as a message starting with '-', or an
+     * option with nothing after it, is searched for as an exact message.
      */
-    private static void find(String message) {
-        HashSet<String> commits = loadData().getCommitMessages().get(message);
-        if (commits == null) {
+    private static void find(Data data, String[] args) {
+        String option = args[1];
+        boolean isOption = option.equals("-w") || option.equals("-p") || option.equals("-s")
+                || option.equals("-r");
+        if (!isOption || args.length < 3) {
+            HashSet<ObjectId> commits = data.getCommitMessages().get(option);
+            if (commits == null) {
+                System.out.println("Found no commit with that message."); return;
+            }
+            for (ObjectId item : commits) {
+                System.out.println(item);
+            }
+            return;
+        }
+        String query = args[2];
+        MessageIndex index = data.getMessageIndex();
+        ArrayList<String> commits;
+        if (option.equals("-w")) {
+            commits = index.findTokens(query);
+        } else if (option.equals("-p")) {
+            commits = index.findPrefix(query);
+        } else if (option.equals("-s")) {
+            commits = index.findSubstring(query);
+        } else {
+            try {
+                commits = index.findRegex(Pattern.compile(query));
+            } catch (PatternSyntaxException e) {
+                System.out.println("Invalid regular expression " + query + "."); return;
+            }
+        }
+        if (commits.isEmpty()) {
             System.out.println("Found no commit with that message."); return;
         }
         for (String item : commits) {
@@ -213,40 +325,45 @@ public class Git {
         }
     }
     
+    /**
+     * Moves all loose blobs into a pack, storing versions of the same file as deltas.
+     */
+    private static void pack(Data data) {
+        PackFile.pack(data);
+    }
+    
     /**
      * Either checks out to a given fileName, a given branch, or
-     * a given fileName in a specific commit ID.
+     * a given fileName in a specific commit ID, which may be abbreviated.
      * Returns errors if checking out to current branch, 
      * or a commit, file, or branch doesn't exist.
      */
-    private static void checkout(String[] args) {
-        if (!checkDangerous()) {
-            return;
-        }
-        if (args.length == 2 && loadData().getBranches().keySet().contains(args[1])) {
-            if (args[1].equals(getCurrBranch().getName())) {
+    private static void checkout(Data data, String[] args) {
+        if (args.length == 2 && data.getBranches().keySet().contains(args[1])) {
+            if (args[1].equals(data.getCurrBranch().getName())) {
                 System.out.println("No need to checkout the current branch.");
             } else {
-                Data data = loadData();
+                Commit previous = data.getCurrBranch().getHead();
                 data.setCurrBranch(args[1]);
-                data.getCurrBranch().reset(data.getCurrBranch().getHead());
-                saveData(data);
+                Checkout.update(previous, data.getCurrBranch().getHead(), data.getIndex());
             }
         } else {
             String fileName;
             String commitID;
             if (args.length > 2) {
                 fileName = args[2];
-                commitID = args[1];
-                if (!loadData().getCommits().containsKey(commitID)) {
-                    System.out.println("No commit with that id exists."); return;
+                commitID = resolveCommitID(data, args[1]);
+                if (commitID == null) {
+                    return;
                 }
             } else {
                 fileName = args[1];
-                commitID = getCurrBranch().getHead().getHash();
+                commitID = data.getCurrBranch().getHead().getHash();
             }
             
-            if (!loadData().getCommits().get(commitID).getFiles().containsKey(fileName)) {
+            Commit commit = data.getCommit(commitID);
+            String blobID = commit.getFile(fileName);
+            if (blobID == null) {
                 if (args.length == 2) {
                     System.out.println("File does not exist in the most recent commit, "
                             + "or no such branch exists.");
@@ -255,54 +372,76 @@ public class Git {
                 }
                 return;
             }
-            Tools.copyToDirectory(fileName, commitID);
+            Tools.copyToDirectory(fileName, blobID, data.getIndex());
         }
         
     }
     
     /**
-     * Resets working directory and branch to a given commit ID.
-     * Returns an error if commit ID doesn't exist.
+     * Resets working directory and branch to a given commit ID, which may be abbreviated.
+     * Returns an error if commit ID doesn't exist or is ambiguous.
      */
-    private static void reset(String commitID) {
-        if (!checkDangerous()) {
+    private static void reset(Data data, String commitID) {
+        commitID = resolveCommitID(data, commitID);
+        if (commitID == null) {
             return;
         }
-        Data data = loadData();
-        if (!data.getCommits().containsKey(commitID)) {
-            System.out.println("No commit with that id exists."); return;
+        data.getCurrBranch().reset(data.getCommit(commitID));
+    }
+    
+    /**
+     * Returns the full ID of the commit whose ID is or starts with the given ID, which
+     * may be abbreviated to any unique prefix. Prints an error and returns null if no
+     * commit or more than one commit matches.
+     */
+    private static String resolveCommitID(Data data, String commitID) {
+        String prefix = commitID.toLowerCase();
+        if (prefix.length() == 64 && data.hasCommit(prefix)) {
+            return prefix;
+        }
+        boolean hex = prefix.length() <= 64;
+        for (int i = 0; i < prefix.length() && hex; i++) {
+            hex = Character.digit(prefix.charAt(i), 16) >= 0;
+        }
+        if (!hex) {
+            System.out.println("No commit with that id exists."); return null;
+        }
+        if (prefix.length() < 4) {
+            System.out.println("Commit id must be at least 4 characters."); return null;
+        }
+        ArrayList<String> matches = data.findCommitIDs(prefix, 2);
+        if (matches.isEmpty()) {
+            System.out.println("No commit with that id exists."); return null;
+        }
+        if (matches.size() > 1) {
+            System.out.println("Commit id " + commitID + " is ambiguous."); return null;
         }
-        data.getCurrBranch().reset(data.getCommits().get(commitID));
-        saveData(data);
+        return matches.get(0);
     }
     
     /**
      * Creates a new branch with the given name.
      * Returns an error if a branch already exists with the given name.
      */
-    private static void newBranch(String branchName) {
-        Data data = loadData();
+    private static void newBranch(Data data, String branchName) {
         if (data.getBranches().keySet().contains(branchName)) {
             System.out.println("A branch with that name already exists."); return;
         }
-        data.addBranch(new Branch(branchName, getCurrBranch()));
-        saveData(data);
+        data.addBranch(new Branch(branchName, data.getCurrBranch()));
     }
     
     /**
      * Removes the branch with the given name.
      * Returns errors if branch doesn't exist, or given branch is current branch.
      */
-    private static void removeBranch(String branchName) {
-        if (!loadData().getBranches().keySet().contains(branchName)) {
+    private static void removeBranch(Data data, String branchName) {
+        if (!data.getBranches().keySet().contains(branchName)) {
             System.out.println("A branch with that name does not exist."); return;
         }
-        if (branchName.equals(getCurrBranch())) {
+        if (branchName.equals(data.getCurrBranch().getName())) {
             System.out.println("Cannot remove the current branch."); return;
         }
-        Data data = loadData();
         data.removeBranch(branchName);
-        saveData(data);
     }
     
     /**
@@ -310,19 +449,14 @@ public class Git {
      * Changes working directory to changes in most recent commit of given branch.
      * Specific cases are detailed in Branch's merge method documentation.
      */
-    private static void merge(String branchName) {
-        if (!checkDangerous()) {
-            return;
-        }
-        Data data = loadData();
+    private static void merge(Data data, String branchName) {
         if (!data.getBranches().keySet().contains(branchName)) {
             System.out.println("A branch with that name does not exist."); return;
         }
-        if (getCurrBranch().getName().equals(branchName)) {
+        if (data.getCurrBranch().getName().equals(branchName)) {
             System.out.println("Cannot merge a branch with itself."); return;
         }
         data.getCurrBranch().merge(data.getBranches().get(branchName));
-        saveData(data);
     }
     
     /**
@@ -331,76 +465,32 @@ public class Git {
      * attaches new commits to head of given branch.
      * Specific cases are detailed in Branch's rebase method documentation.
      */
-    private static void rebase(String branchName, boolean isInteractive) {
-        if (!checkDangerous()) {
-            return;
-        }
-        Data data = loadData();
+    private static void rebase(Data data, String branchName, boolean isInteractive) {
         if (!data.getBranches().keySet().contains(branchName)) {
             System.out.println("A branch with that name does not exist."); return;
         }
-        if (getCurrBranch().getName().equals(branchName)) {
+        if (data.getCurrBranch().getName().equals(branchName)) {
             System.out.println("Cannot rebase a branch onto itself."); return;
         }
         data.getCurrBranch().rebase(data.getBranches().get(branchName), data, isInteractive);
-        saveData(data);
     }
     
     /**
-     * Prompts user to ask if s/he wants to continue with potentially dangerous action.
+     * Prompts user to ask if s/he wants to continue with potentially dangerous action,
+     * printing to out and reading the answer from in.
      */
-    private static boolean checkDangerous() {
-        System.out.println("Warning: The command you entered may alter the files in your working "
+    static boolean checkDangerous(InputStream in, PrintStream out) {
+        out.println("Warning: The command you entered may alter the files in your working "
                 + "directory. Uncommitted changes may be lost. "
                 + "Are you sure you want to continue? (yes/no)");
         @SuppressWarnings("resource")
-        Scanner reader = new Scanner(System.in);
+        Scanner reader = new Scanner(in);
         String input = reader.next();
         if (input.equals("yes")) {
             return true;
         } else {
-            System.out.println("Did not type 'yes', so aborting"); 
+            out.println("Did not type 'yes', so aborting"); 
             return false;
         }
     }
-    
-    /**
-     * Load's serialized saved data.
-     */
-    public static Data loadData() {
-        Data data = null;
-        File dataFile = new File(".gitlet" + File.separator + "Data.ser");
-        if (dataFile.exists()) {
-            try {
-                FileInputStream fileIn = new FileInputStream(dataFile);
-                ObjectInputStream objectIn = new ObjectInputStream(fileIn);
-                data = (Data) objectIn.readObject();
-                objectIn.close();
-            } catch (IOException e) {
-                System.out.println("IOException while loading Data.");
-                System.out.println(e);
-            } catch (ClassNotFoundException e) {
-                System.out.println("ClassNotFoundException while loading Data.");
-            }
-        }
-        return data;
-    }
-    
-    /**
-     * Serializes and saves given data.
-     */
-    public static void saveData(Data data) {
-        if (data == null) {
-            return;
-        }
-        try {
-            File dataFile = new File(".gitlet" + File.separator + "Data.ser");
-            FileOutputStream fileOut = new FileOutputStream(dataFile);
-            ObjectOutputStream objectOut = new ObjectOutputStream(fileOut);
-            objectOut.writeObject(data);
-            objectOut.close();
-        } catch (IOException e) {
-            System.out.println("IOException while saving Data.");
-        }
-    }
 }
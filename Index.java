@@ -0,0 +1,214 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+public class Index {
+    
+    private static final String INDEX = ".gitlet" + File.separator + "index";
+    
+    /**
+     * Files modified this recently are not cached, since a later write within the
+     * same timestamp tick could change their contents without changing their mtime.
+     */
+    private static final long RACY_MILLIS = 2000;
+    
+    private ConcurrentHashMap<String, Entry> entries;
+    private volatile boolean changed;
+    
+    /**
+     * The stat data and content hash recorded for one file in the working directory.
+     */
+    private static class Entry {
+        private final long size;
+        private final long mtime;
+        private final String inode;
+        private final String hash;
+        
+        Entry(long size, long mtime, String inode, String hash) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.hash = hash;
+        }
+        
+        /**
+         * Returns true if the given stat data still matches this entry.
+         */
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && mtime == attributes.lastModifiedTime().toMillis()
+                    && inode.equals(inodeOf(attributes));
+        }
+    }
+    
+    /**
+     * Initiates all class variables. Entries may be read and updated by several
+     * threads at once while the working directory is scanned.
+     */
+    public Index() {
+        entries = new ConcurrentHashMap<String, Entry>();
+        changed = false;
+    }
+    
+    /**
+     * Loads the saved index, or returns an empty index if none was saved.
+     */
+    public static Index load() {
+        Index index = new Index();
+        File indexFile = new File(INDEX);
+        if (!indexFile.exists()) {
+            return index;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(indexFile)));
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String fileName = in.readUTF();
+                index.entries.put(fileName, new Entry(in.readLong(), in.readLong(),
+                        in.readUTF(), in.readUTF()));
+            }
+            in.close();
+        } catch (IOException e) {
+            System.out.println("IOException while loading index.");
+            index.entries.clear();
+        }
+        return index;
+    }
+    
+    /**
+     * Saves the index if any entry changed since it was loaded, through a temporary file.
+     * Read-only commands save the index too, possibly several at once, so each writes
+     * a whole file and the last one wins.
+     */
+    public void save() {
+        if (!changed) {
+            return;
+        }
+        File indexFile = new File(INDEX);
+        File temp = null;
+        try {
+            temp = File.createTempFile("index", ".tmp", indexFile.getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)));
+            out.writeInt(entries.size());
+            for (String fileName : entries.keySet()) {
+                Entry entry = entries.get(fileName);
+                out.writeUTF(fileName);
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeUTF(entry.inode);
+                out.writeUTF(entry.hash);
+            }
+            out.close();
+            MetadataStore.replace(temp, indexFile);
+            changed = false;
+        } catch (IOException e) {
+            System.out.println("IOException while saving index.");
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+    
+    /**
+     * Returns the cached content hash of the given file if its size, mtime and inode
+     * are unchanged since the hash was recorded. Costs a single stat call.
+     * Returns null if the file doesn't exist or has no up-to-date entry.
+     */
+    public String getCachedHash(String fileName) {
+        Entry entry = entries.get(fileName);
+        if (entry == null) {
+            return null;
+        }
+        BasicFileAttributes attributes = stat(fileName);
+        if (attributes == null || !entry.matches(attributes)) {
+            entries.remove(fileName);
+            changed = true;
+            return null;
+        }
+        return entry.hash;
+    }
+    
+    /**
+     * Returns the content hash recorded for the given file without checking its stat
+     * data, or null if there is none. Only for files known not to have changed since
+     * their entry was last checked, such as files a TreeWatcher saw no events for.
+     */
+    public String getRecordedHash(String fileName) {
+        Entry entry = entries.get(fileName);
+        return entry == null ? null : entry.hash;
+    }
+    
+    /**
+     * Returns the content hash of the given file, reading the file only if the
+     * cached entry is missing or out of date. Returns null if the file doesn't exist.
+     */
+    public String getHash(String fileName) {
+        String hash = getCachedHash(fileName);
+        if (hash == null && new File(fileName).exists()) {
+            hash = ObjectStore.hashFile(fileName);
+            update(fileName, hash);
+        }
+        return hash;
+    }
+    
+    /**
+     * Records that the given file in the working directory currently has the given
+     * content hash. If the file was modified too recently to be cached, or can't be
+     * read, any earlier entry for it is dropped instead, since it no longer matches.
+     */
+    public void update(String fileName, String hash) {
+        BasicFileAttributes attributes = stat(fileName);
+        if (hash == null || attributes == null) {
+            remove(fileName);
+            return;
+        }
+        long mtime = attributes.lastModifiedTime().toMillis();
+        if (System.currentTimeMillis() - mtime < RACY_MILLIS) {
+            remove(fileName);
+            return;
+        }
+        entries.put(fileName, new Entry(attributes.size(), mtime, inodeOf(attributes), hash));
+        changed = true;
+    }
+    
+    /**
+     * Removes the entry of the given file, if it has one, such as when the file has
+     * been deleted.
+     */
+    public void remove(String fileName) {
+        if (entries.remove(fileName) != null) {
+            changed = true;
+        }
+    }
+    
+    /**
+     * Returns the size, mtime and inode of the given file, or null if it doesn't exist.
+     */
+    private static BasicFileAttributes stat(String fileName) {
+        try {
+            return Files.readAttributes(new File(fileName).toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Returns the inode (file key) from the given stat data, or an empty string
+     * on filesystems without one.
+     */
+    private static String inodeOf(BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        return key == null ? "" : key.toString();
+    }
+}
@@ -0,0 +1,174 @@
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+
+public class LogFilter {
+    
+    private int limit;
+    private int skip;
+    private long since;
+    private long until;
+    private int printed;
+    private int skipped;
+    private boolean reverse;
+    
+    /**
+     * Initiates all class variables, with no limits: every commit is printed.
+     */
+    public LogFilter() {
+        limit = -1;
+        skip = 0;
+        since = Long.MIN_VALUE;
+        until = Long.MAX_VALUE;
+        printed = 0;
+        skipped = 0;
+        reverse = false;
+    }
+    
+    /**
+     * Returns a filter built from the options in args, starting at index start:
+     * -n <count> prints at most count commits, --skip <count> leaves out the first
+     * count commits, and --since <date> and --until <date> keep only commits made in
+     * that range. Dates are yyyy-MM-dd or "yyyy-MM-dd HH:mm:ss", and each option may
+     * also be written as --option=value, and --reverse prints oldest first.
+     * Prints an error and returns null if an option isn't recognized or its value
+     * can't be read.
+     */
+    public static LogFilter parse(String[] args, int start) {
+        LogFilter filter = new LogFilter();
+        for (int i = start; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--reverse")) {
+                filter.reverse = true;
+                continue;
+            }
+            String value;
+            int equals = option.indexOf('=');
+            if (option.startsWith("--") && equals >= 0) {
+                value = option.substring(equals + 1);
+                option = option.substring(0, equals);
+            } else if (i + 1 < args.length) {
+                value = args[++i];
+            } else {
+                System.out.println("Missing value for " + option + "."); return null;
+            }
+            try {
+                if (option.equals("-n")) {
+                    filter.limit = parseCount(value);
+                } else if (option.equals("--skip")) {
+                    filter.skip = parseCount(value);
+                } else if (option.equals("--since")) {
+                    filter.since = parseDate(value);
+                } else if (option.equals("--until")) {
+                    filter.until = parseDate(value);
+                } else {
+                    System.out.println("Unrecognized log option " + option + "."); return null;
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid count " + value
+                        + ". Counts must be whole numbers of 0 or more."); return null;
+            } catch (ParseException e) {
+                System.out.println("Invalid date " + value + "."); return null;
+            }
+        }
+        return filter;
+    }
+    
+    /**
+     * Returns the given count, which may not be negative.
+     */
+    private static int parseCount(String value) {
+        int count = Integer.parseInt(value);
+        if (count < 0) {
+            throw new NumberFormatException("Negative count " + value);
+        }
+        return count;
+    }
+    
+    /**
+     * Returns the time in milliseconds of the given date, with or without a time of day.
+     */
+    private static long parseDate(String value) throws ParseException {
+        String pattern = value.indexOf(' ') >= 0 ? "yyyy-MM-dd HH:mm:ss" : "yyyy-MM-dd";
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setLenient(false);
+        return format.parse(value).getTime();
+    }
+    
+    /**
+     * Returns the start of the range, in milliseconds.
+     */
+    public long getSince() {
+        return since;
+    }
+    
+    /**
+     * Returns the end of the range, in milliseconds.
+     */
+    public long getUntil() {
+        return until;
+    }
+    
+    /**
+     * Returns true if commits should be printed oldest first.
+     */
+    public boolean isReverse() {
+        return reverse;
+    }
+    
+    /**
+     * Returns true once as many commits as allowed have been printed.
+     */
+    public boolean isDone() {
+        return limit >= 0 && printed >= limit;
+    }
+    
+    /**
+     * Returns true if the given commit was made before the start of the range.
+     */
+    public boolean isBefore(Commit commit) {
+        return commit.getTimestamp() < since;
+    }
+    
+    /**
+     * Returns true if commits are only kept within a range of times.
+     */
+    public boolean hasRange() {
+        return since != Long.MIN_VALUE || until != Long.MAX_VALUE;
+    }
+    
+    /**
+     * Returns the number of commits still to be skipped.
+     */
+    public int getSkip() {
+        return skip - skipped;
+    }
+    
+    /**
+     * Records that all commits to be skipped have been skipped without being offered.
+     */
+    public void skipAll() {
+        skipped = skip;
+    }
+    
+    /**
+     * Prints the commit ID, the time, and the message of the given commit, unless it is
+     * outside the range, still to be skipped, or past the limit.
+     */
+    public void offer(Commit commit) {
+        long time = commit.getTimestamp();
+        if (time < since || time > until || isDone()) {
+            return;
+        }
+        if (skipped < skip) {
+            skipped++;
+            return;
+        }
+        printed++;
+        System.out.println("====");
+        System.out.println("Commit " + commit.getHash() + ".");
+        System.out.println(commit.getTime());
+        System.out.println(commit.getMessage());
+        System.out.println();
+    }
+}
@@ -0,0 +1,324 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+
+public class MessageIndex {
+    
+    private static final String INDEX = ".gitlet" + File.separator + "message-index";
+    
+    /**
+     * Once this many commits have been added to the message log since the index was
+     * last written, the index is rewritten when it is next loaded.
+     */
+    private static final int COMPACT_AFTER = 1024;
+    
+    private ArrayList<String> ids;
+    private ArrayList<String> messages;
+    private TreeMap<String, int[]> postings;
+    private long logOffset;
+    
+    /**
+     * Initiates all class variables, with no commits.
+     */
+    private MessageIndex() {
+        ids = new ArrayList<String>();
+        messages = new ArrayList<String>();
+        postings = new TreeMap<String, int[]>();
+        logOffset = 0;
+    }
+    
+    /**
+     * Loads the inverted index of commit messages. Each commit is numbered in the order
+     * it was added to the message log, and every token of its message maps to the sorted
+     * numbers of the commits containing it. The saved index covers the message log up to
+     * a recorded offset; commits logged after that are indexed as they are read, and
+     * the index is rewritten once there are many of them.
+     */
+    public static MessageIndex load() {
+        MessageIndex index = new MessageIndex();
+        File indexFile = new File(INDEX);
+        try {
+            if (indexFile.exists()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(indexFile)));
+                index.logOffset = in.readLong();
+                int docs = in.readInt();
+                for (int i = 0; i < docs; i++) {
+                    index.ids.add(in.readUTF());
+                    index.messages.add(in.readUTF());
+                }
+                int terms = in.readInt();
+                for (int i = 0; i < terms; i++) {
+                    String term = in.readUTF();
+                    int[] list = new int[in.readInt()];
+                    for (int j = 0; j < list.length; j++) {
+                        list[j] = in.readInt();
+                    }
+                    index.postings.put(term, list);
+                }
+                in.close();
+            }
+        } catch (IOException e) {
+            System.out.println("IOException while loading message index.");
+            index = new MessageIndex();
+        }
+        ArrayList<String> newMessages = new ArrayList<String>();
+        ArrayList<String> newIDs = new ArrayList<String>();
+        long end = MetadataStore.readMessageLog(index.logOffset, newMessages, newIDs);
+        for (int i = 0; i < newIDs.size(); i++) {
+            index.add(newIDs.get(i), newMessages.get(i));
+        }
+        if (newIDs.size() >= COMPACT_AFTER || (!indexFile.exists() && !newIDs.isEmpty())) {
+            index.logOffset = end;
+            index.save();
+        }
+        return index;
+    }
+    
+    /**
+     * Writes the whole index, through a temporary file.
+     */
+    private void save() {
+        File temp = null;
+        try {
+            File indexFile = new File(INDEX);
+            temp = File.createTempFile("message-index", ".tmp", indexFile.getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)));
+            out.writeLong(logOffset);
+            out.writeInt(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                out.writeUTF(ids.get(i));
+                out.writeUTF(messages.get(i));
+            }
+            out.writeInt(postings.size());
+            for (String term : postings.keySet()) {
+                int[] list = postings.get(term);
+                out.writeUTF(term);
+                out.writeInt(list.length);
+                for (int doc : list) {
+                    out.writeInt(doc);
+                }
+            }
+            out.close();
+            MetadataStore.replace(temp, indexFile);
+        } catch (IOException e) {
+            System.out.println("IOException while saving message index.");
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+    
+    /**
+     * Adds a commit with the given ID and message as the next commit in the index.
+     * The message log itself is written when the commit is saved.
+     */
+    public void add(String commitID, String message) {
+        int doc = ids.size();
+        ids.add(commitID);
+        messages.add(message);
+        for (String token : tokenize(message)) {
+            int[] list = postings.get(token);
+            if (list == null) {
+                postings.put(token, new int[] {doc});
+            } else if (list[list.length - 1] != doc) {
+                list = Arrays.copyOf(list, list.length + 1);
+                list[list.length - 1] = doc;
+                postings.put(token, list);
+            }
+        }
+    }
+    
+    /**
+     * Returns the IDs of commits whose messages contain every token of the query.
+     */
+    public ArrayList<String> findTokens(String query) {
+        int[] result = null;
+        for (String token : tokenize(query)) {
+            int[] list = postings.get(token);
+            if (list == null) {
+                return new ArrayList<String>();
+            }
+            result = result == null ? list : intersect(result, list);
+        }
+        return toIDs(result);
+    }
+    
+    /**
+     * Returns the IDs of commits whose messages contain a token starting with each token
+     * of the query. The tokens with a given prefix are a single range of the sorted
+     * dictionary.
+     */
+    public ArrayList<String> findPrefix(String query) {
+        int[] result = null;
+        for (String token : tokenize(query)) {
+            int[] matches = union(postings.subMap(token, token + Character.MAX_VALUE)
+                    .values());
+            result = result == null ? matches : intersect(result, matches);
+        }
+        return toIDs(result);
+    }
+    
+    /**
+     * Returns the IDs of commits whose messages contain the query, ignoring case.
+     * Candidates are the commits with, for each token of the query, some token
+     * containing it; only their messages are then checked.
+     */
+    public ArrayList<String> findSubstring(String query) {
+        int[] candidates = null;
+        for (String token : tokenize(query)) {
+            ArrayList<int[]> lists = new ArrayList<int[]>();
+            for (String term : postings.keySet()) {
+                if (term.contains(token)) {
+                    lists.add(postings.get(term));
+                }
+            }
+            int[] matches = union(lists);
+            candidates = candidates == null ? matches : intersect(candidates, matches);
+        }
+        String lowerQuery = query.toLowerCase();
+        ArrayList<String> result = new ArrayList<String>();
+        if (candidates == null) {
+            for (int doc = 0; doc < ids.size(); doc++) {
+                if (messages.get(doc).toLowerCase().contains(lowerQuery)) {
+                    result.add(ids.get(doc));
+                }
+            }
+            return result;
+        }
+        for (int doc : candidates) {
+            if (messages.get(doc).toLowerCase().contains(lowerQuery)) {
+                result.add(ids.get(doc));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the IDs of commits with some part of their message matching the given
+     * regular expression. A regular expression can't be looked up by token, so every
+     * message is checked.
+     */
+    public ArrayList<String> findRegex(Pattern pattern) {
+        ArrayList<String> result = new ArrayList<String>();
+        for (int doc = 0; doc < ids.size(); doc++) {
+            if (pattern.matcher(messages.get(doc)).find()) {
+                result.add(ids.get(doc));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the lowercase tokens of the given text: each run of letters, digits and
+     * the characters - _ . # that joins them, such as a ticket ID like ABC-123, and
+     * each run of letters or digits within it.
+     */
+    public static HashSet<String> tokenize(String text) {
+        HashSet<String> tokens = new HashSet<String>();
+        String lower = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            char c = i < lower.length() ? lower.charAt(i) : ' ';
+            boolean word = Character.isLetterOrDigit(c)
+                    || (start >= 0 && (c == '-' || c == '_' || c == '.' || c == '#'));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                addToken(lower.substring(start, i), tokens);
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+    
+    /**
+     * Adds the given run, without trailing joining characters, and its parts.
+     */
+    private static void addToken(String run, HashSet<String> tokens) {
+        int end = run.length();
+        while (end > 0 && !Character.isLetterOrDigit(run.charAt(end - 1))) {
+            end--;
+        }
+        run = run.substring(0, end);
+        if (run.isEmpty()) {
+            return;
+        }
+        tokens.add(run);
+        int start = 0;
+        for (int i = 0; i <= run.length(); i++) {
+            if (i == run.length() || !Character.isLetterOrDigit(run.charAt(i))) {
+                if (i > start) {
+                    tokens.add(run.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+    }
+    
+    /**
+     * Returns the commit numbers in both sorted lists, merging them in one pass.
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+    
+    /**
+     * Returns the sorted commit numbers in any of the given sorted lists.
+     */
+    private static int[] union(Iterable<int[]> lists) {
+        BitSet docs = new BitSet();
+        for (int[] list : lists) {
+            for (int doc : list) {
+                docs.set(doc);
+            }
+        }
+        int[] result = new int[docs.cardinality()];
+        int size = 0;
+        for (int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+            result[size++] = doc;
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the commit IDs of the given commit numbers, or an empty list for null.
+     */
+    private ArrayList<String> toIDs(int[] docs) {
+        ArrayList<String> result = new ArrayList<String>();
+        if (docs != null) {
+            for (int doc : docs) {
+                result.add(ids.get(doc));
+            }
+        }
+        return result;
+    }
+}
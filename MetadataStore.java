@@ -0,0 +1,445 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+
+public class MetadataStore {
+    
+    private static final String ROOT = ".gitlet";
+    private static final String HEAD = ROOT + File.separator + "HEAD";
+    private static final String REFS = ROOT + File.separator + "refs";
+    private static final String COMMITS = ROOT + File.separator + "commits";
+    private static final String TREES = ROOT + File.separator + "trees";
+    private static final String MESSAGES = ROOT + File.separator + "messages";
+    private static final String STAGE = ROOT + File.separator + "stage";
+    private static final String REMOVE = ROOT + File.separator + "remove";
+    
+    /**
+     * Creates the folders used by the store. Used only in init.
+     */
+    public static void create() {
+        new File(REFS).mkdirs();
+        new File(COMMITS).mkdirs();
+        new File(TREES).mkdirs();
+    }
+    
+    /**
+     * Returns true if a store exists in the current directory.
+     */
+    public static boolean exists() {
+        return new File(HEAD).exists();
+    }
+    
+    /**
+     * Returns the name of the current branch.
+     */
+    public static String readHead() {
+        ArrayList<String> lines = readLines(HEAD);
+        return lines.isEmpty() ? null : lines.get(0);
+    }
+    
+    /**
+     * Saves the name of the current branch.
+     */
+    public static void writeHead(String branchName) {
+        ArrayList<String> lines = new ArrayList<String>();
+        lines.add(branchName);
+        writeLines(HEAD, lines);
+    }
+    
+    /**
+     * Returns a map of every branch name to the commit ID at its head.
+     * A branch with no commits yet maps to null.
+     */
+    public static HashMap<String, String> readRefs() {
+        HashMap<String, String> refs = new HashMap<String, String>();
+        String[] names = new File(REFS).list();
+        if (names == null) {
+            return refs;
+        }
+        for (String name : names) {
+            ArrayList<String> lines = readLines(REFS + File.separator + name);
+            refs.put(decodeRef(name), lines.isEmpty() ? null : lines.get(0));
+        }
+        return refs;
+    }
+    
+    /**
+     * Saves the head commit ID of the given branch.
+     */
+    public static void writeRef(String branchName, String commitID) {
+        ArrayList<String> lines = new ArrayList<String>();
+        if (commitID != null) {
+            lines.add(commitID);
+        }
+        writeLines(REFS + File.separator + encodeRef(branchName), lines);
+    }
+    
+    /**
+     * Deletes the given branch.
+     */
+    public static void deleteRef(String branchName) {
+        new File(REFS + File.separator + encodeRef(branchName)).delete();
+    }
+    
+    /**
+     * Returns the name of the file in .gitlet/refs for the given branch. Branch names
+     * may hold any character, so every character other than a letter, digit, '-', '_'
+     * or a '.' that doesn't start the name is written as '%' and two hex digits for
+     * each of its UTF-8 bytes. Plain names, such as master, are kept as they are.
+     */
+    private static String encodeRef(String branchName) {
+        StringBuilder result = new StringBuilder();
+        byte[] bytes = branchName.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                    || b == '-' || b == '_' || (b == '.' && i > 0)) {
+                result.append((char) b);
+            } else {
+                result.append('%').append(Character.forDigit(b >> 4, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Returns the branch name stored in the given file in .gitlet/refs.
+     */
+    private static String decodeRef(String fileName) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < fileName.length(); i++) {
+            char c = fileName.charAt(i);
+            int high = i + 2 < fileName.length() ? Character.digit(fileName.charAt(i + 1), 16) : -1;
+            int low = i + 2 < fileName.length() ? Character.digit(fileName.charAt(i + 2), 16) : -1;
+            if (c == '%' && high >= 0 && low >= 0) {
+                bytes.write(high << 4 | low);
+                i += 2;
+            } else {
+                int length = Character.charCount(fileName.codePointAt(i));
+                byte[] plain = fileName.substring(i, i + length).getBytes(StandardCharsets.UTF_8);
+                bytes.write(plain, 0, plain.length);
+                i += length - 1;
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Returns the names of all currently staged files.
+     */
+    public static HashSet<String> readStage() {
+        return new HashSet<String>(readLines(STAGE));
+    }
+    
+    /**
+     * Saves the names of all currently staged files.
+     */
+    public static void writeStage(HashSet<String> stage) {
+        writeLines(STAGE, new ArrayList<String>(stage));
+    }
+    
+    /**
+     * Returns the names of all files currently marked for removal.
+     */
+    public static HashSet<String> readRemove() {
+        return new HashSet<String>(readLines(REMOVE));
+    }
+    
+    /**
+     * Saves the names of all files currently marked for removal.
+     */
+    public static void writeRemove(HashSet<String> remove) {
+        writeLines(REMOVE, new ArrayList<String>(remove));
+    }
+    
+    /**
+     * Returns true if a commit with the given ID has been saved.
+     */
+    public static boolean hasCommit(String commitID) {
+        return commitID != null && commitID.indexOf(File.separatorChar) < 0
+                && getCommitFile(commitID).exists();
+    }
+    
+    /**
+     * Returns the IDs of every saved commit.
+     */
+    public static ArrayList<String> listCommits() {
+        ArrayList<String> ids = new ArrayList<String>();
+        String[] names = new File(COMMITS).list();
+        if (names != null) {
+            for (String name : names) {
+                ids.add(name);
+            }
+        }
+        return ids;
+    }
+    
+    /**
+     * Loads the commit with the given ID, or returns null if it doesn't exist.
+     * Only this commit's record is read; its parent is loaded when first needed.
+     */
+    public static Commit readCommit(String commitID) {
+        if (!hasCommit(commitID)) {
+            return null;
+        }
+        Commit commit = null;
+        try {
+            DataInputStream commitIn = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(getCommitFile(commitID))));
+            commit = Commit.read(commitIn);
+            commitIn.close();
+        } catch (IOException e) {
+            System.out.println("IOException while loading commit " + commitID + ".");
+        }
+        return commit;
+    }
+    
+    /**
+     * Saves the given commit as its own record, and appends its message to the
+     * message log. Commits are immutable, so each record is only ever written once,
+     * through a temporary file so that it is never seen half written.
+     */
+    public static void writeCommit(Commit commit) {
+        File commitFile = getCommitFile(commit.getHash());
+        if (commitFile.exists()) {
+            return;
+        }
+        File temp = null;
+        try {
+            temp = File.createTempFile("commit", ".tmp", new File(ROOT));
+            DataOutputStream commitOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)));
+            commit.write(commitOut);
+            commitOut.close();
+            replace(temp, commitFile);
+            
+            DataOutputStream messagesOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(MESSAGES, true)));
+            messagesOut.writeUTF(commit.getMessage());
+            messagesOut.writeUTF(commit.getHash());
+            messagesOut.close();
+        } catch (IOException e) {
+            System.out.println("IOException while saving commit " + commit.getHash() + ".");
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+    
+    /**
+     * Reads the message log from the given byte offset to its end, adding each message
+     * to messages and its commit ID to ids, in the order they were logged. Returns the
+     * offset of the end of the log.
+     */
+    public static long readMessageLog(long offset, ArrayList<String> messages,
+            ArrayList<String> ids) {
+        File messagesFile = new File(MESSAGES);
+        if (!messagesFile.exists()) {
+            return offset;
+        }
+        long end = offset;
+        try {
+            FileInputStream fileIn = new FileInputStream(messagesFile);
+            fileIn.getChannel().position(offset);
+            DataInputStream messagesIn = new DataInputStream(new BufferedInputStream(fileIn));
+            try {
+                while (true) {
+                    String message = messagesIn.readUTF();
+                    String commitID = messagesIn.readUTF();
+                    messages.add(message);
+                    ids.add(commitID);
+                    end += 4 + utfLength(message) + utfLength(commitID);
+                }
+            } catch (EOFException e) {
+                messagesIn.close();
+            }
+        } catch (IOException e) {
+            System.out.println("IOException while loading commit messages.");
+        }
+        return end;
+    }
+    
+    /**
+     * Returns the number of bytes writeUTF uses for the given string, not counting
+     * its two-byte length.
+     */
+    private static int utfLength(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length++;
+            } else if (c <= 0x07FF) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+    
+    /**
+     * Loads the tree with the given ID, or returns null if it can't be read.
+     */
+    public static Tree readTree(String treeID) {
+        Tree tree = null;
+        try {
+            DataInputStream treeIn = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(getTreeFile(treeID))));
+            tree = Tree.read(treeIn);
+            treeIn.close();
+        } catch (IOException e) {
+            System.out.println("IOException while loading tree " + treeID + ".");
+        }
+        return tree;
+    }
+    
+    /**
+     * Saves the given tree record under the given ID, unless it is already saved.
+     * Trees are named by their contents, so each is only ever written once.
+     */
+    public static void writeTree(String treeID, byte[] record) {
+        File treeFile = getTreeFile(treeID);
+        if (treeFile.exists()) {
+            return;
+        }
+        File temp = null;
+        try {
+            treeFile.getParentFile().mkdirs();
+            temp = File.createTempFile("tree", ".tmp", treeFile.getParentFile());
+            FileOutputStream treeOut = new FileOutputStream(temp);
+            treeOut.write(record);
+            treeOut.close();
+            replace(temp, treeFile);
+        } catch (IOException e) {
+            System.out.println("IOException while saving tree " + treeID + ".");
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+    
+    /**
+     * Returns map of commit messages mapped to a set of commit IDs with that message,
+     * read from the message log.
+     */
+    public static HashMap<String, HashSet<ObjectId>> readMessages() {
+        HashMap<String, HashSet<ObjectId>> messages =
+                new HashMap<String, HashSet<ObjectId>>();
+        File messagesFile = new File(MESSAGES);
+        if (!messagesFile.exists()) {
+            return messages;
+        }
+        try {
+            DataInputStream messagesIn = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(messagesFile)));
+            try {
+                while (true) {
+                    String message = messagesIn.readUTF();
+                    String commitID = messagesIn.readUTF();
+                    if (!messages.containsKey(message)) {
+                        messages.put(message, new HashSet<ObjectId>());
+                    }
+                    messages.get(message).add(ObjectId.parse(commitID));
+                }
+            } catch (EOFException e) {
+                messagesIn.close();
+            }
+        } catch (IOException e) {
+            System.out.println("IOException while loading commit messages.");
+        }
+        return messages;
+    }
+    
+    /**
+     * Returns the file holding the record of the given commit ID.
+     */
+    private static File getCommitFile(String commitID) {
+        return new File(COMMITS + File.separator + commitID);
+    }
+    
+    /**
+     * Returns the file holding the tree with the given ID, in a fan-out folder named
+     * by the first two characters of the ID.
+     */
+    private static File getTreeFile(String treeID) {
+        return new File(TREES + File.separator + treeID.substring(0, 2)
+                + File.separator + treeID.substring(2));
+    }
+    
+    /**
+     * Reads every line of the given file. Returns an empty list if it doesn't exist.
+     */
+    private static ArrayList<String> readLines(String fileName) {
+        ArrayList<String> lines = new ArrayList<String>();
+        File file = new File(fileName);
+        if (!file.exists()) {
+            return lines;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            reader.close();
+        } catch (IOException e) {
+            System.out.println("IOException while loading " + fileName + ".");
+        }
+        return lines;
+    }
+    
+    /**
+     * Overwrites the given file with the given lines. The lines are written to a
+     * temporary file which then replaces the given file, so it is never seen half written.
+     * The temporary file is made in .gitlet itself, so that one left behind by a crash
+     * is never read as a branch in .gitlet/refs.
+     */
+    private static void writeLines(String fileName, ArrayList<String> lines) {
+        File file = new File(fileName);
+        File temp = null;
+        try {
+            temp = File.createTempFile("ref", ".tmp", new File(ROOT));
+            FileWriter writer = new FileWriter(temp);
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.close();
+            replace(temp, file);
+        } catch (IOException e) {
+            System.out.println("IOException while saving " + fileName + ".");
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+    
+    /**
+     * Moves the given temporary file over target in a single step, so that readers see
+     * either the old contents or the new ones. Used for every file in .gitlet that is
+     * rewritten in place.
+     */
+    static void replace(File temp, File target) throws IOException {
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+public final class ObjectId implements Comparable<ObjectId> {
+
+    /**
+     * Number of bytes in an ID, the size of a SHA-256 hash.
+     */
+    public static final int SIZE = 32;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The value of each hex digit character, indexed by the character, or -1 for
+     * characters that aren't hex digits.
+     */
+    private static final byte[] DIGIT_VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < DIGIT_VALUES.length; i++) {
+            DIGIT_VALUES[i] = -1;
+        }
+        for (int i = 0; i < 16; i++) {
+            DIGIT_VALUES[HEX_DIGITS[i]] = (byte) i;
+            DIGIT_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
+    private final long word0;
+    private final long word1;
+    private final long word2;
+    private final long word3;
+
+    /**
+     * Initializes all class variables. The ID's 32 bytes are held as four big-endian
+     * longs, so an ID takes no more space than its bytes and compares in four steps.
+     */
+    private ObjectId(long word0, long word1, long word2, long word3) {
+        this.word0 = word0;
+        this.word1 = word1;
+        this.word2 = word2;
+        this.word3 = word3;
+    }
+
+    /**
+     * Returns the ID written as the given 64 hex digits, or null if it isn't one.
+     */
+    public static ObjectId parse(String hex) {
+        if (hex == null || hex.length() != SIZE * 2) {
+            return null;
+        }
+        for (int i = 0; i < SIZE * 2; i++) {
+            char c = hex.charAt(i);
+            if (c >= DIGIT_VALUES.length || DIGIT_VALUES[c] < 0) {
+                return null;
+            }
+        }
+        return new ObjectId(parseWord(hex, 0), parseWord(hex, 16), parseWord(hex, 32),
+                parseWord(hex, 48));
+    }
+    
+    /**
+     * Returns the long written as the 16 hex digits of hex starting at start, which
+     * are known to be valid.
+     */
+    private static long parseWord(String hex, int start) {
+        long word = 0;
+        for (int i = start; i < start + 16; i++) {
+            word = word << 4 | DIGIT_VALUES[hex.charAt(i)];
+        }
+        return word;
+    }
+    
+    /**
+     * Returns the ID made of the given 32 bytes, such as a SHA-256 digest.
+     */
+    public static ObjectId fromBytes(byte[] bytes) {
+        return read(ByteBuffer.wrap(bytes), 0);
+    }
+
+    /**
+     * Returns the ID stored as 32 bytes at the given offset of buffer.
+     */
+    public static ObjectId read(ByteBuffer buffer, int offset) {
+        return new ObjectId(buffer.getLong(offset), buffer.getLong(offset + 8),
+                buffer.getLong(offset + 16), buffer.getLong(offset + 24));
+    }
+
+    /**
+     * Returns the hex form of the ID stored as 32 bytes at the given offset of buffer.
+     */
+    public static String toHex(ByteBuffer buffer, int offset) {
+        return read(buffer, offset).toString();
+    }
+
+    /**
+     * Returns the hex form of the given 32 bytes.
+     */
+    public static String toHex(byte[] bytes) {
+        return fromBytes(bytes).toString();
+    }
+
+    /**
+     * Returns the 32 bytes of the ID written as the given 64 hex digits.
+     */
+    public static byte[] toBytes(String hex) {
+        return parse(hex).toBytes();
+    }
+
+    /**
+     * Returns true if this ID equals the 32 bytes at the given offset of buffer.
+     */
+    public boolean matches(ByteBuffer buffer, int offset) {
+        return word0 == buffer.getLong(offset) && word1 == buffer.getLong(offset + 8)
+                && word2 == buffer.getLong(offset + 16) && word3 == buffer.getLong(offset + 24);
+    }
+
+    /**
+     * Compares this ID with the 32 bytes at the given offset of buffer, as compareTo
+     * does, without reading them into a new ID.
+     */
+    public int compareTo(ByteBuffer buffer, int offset) {
+        int result = Long.compareUnsigned(word0, buffer.getLong(offset));
+        if (result == 0) {
+            result = Long.compareUnsigned(word1, buffer.getLong(offset + 8));
+        }
+        if (result == 0) {
+            result = Long.compareUnsigned(word2, buffer.getLong(offset + 16));
+        }
+        if (result == 0) {
+            result = Long.compareUnsigned(word3, buffer.getLong(offset + 24));
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the first byte of this ID, from 0 to 255.
+     */
+    public int firstByte() {
+        return (int) (word0 >>> 56);
+    }
+    
+    /**
+     * Writes the 32 bytes of this ID.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(word0);
+        out.writeLong(word1);
+        out.writeLong(word2);
+        out.writeLong(word3);
+    }
+
+    /**
+     * Returns the 32 bytes of this ID.
+     */
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(SIZE).putLong(word0).putLong(word1).putLong(word2)
+                .putLong(word3).array();
+    }
+
+    /**
+     * Returns the ID as 64 lowercase hex digits, filled in from a table straight into
+     * the string's characters.
+     */
+    @Override
+    public String toString() {
+        char[] chars = new char[SIZE * 2];
+        appendHex(chars, 0, word0);
+        appendHex(chars, 16, word1);
+        appendHex(chars, 32, word2);
+        appendHex(chars, 48, word3);
+        return new String(chars);
+    }
+
+    /**
+     * Writes the 16 hex digits of word into chars, starting at start.
+     */
+    private static void appendHex(char[] chars, int start, long word) {
+        for (int i = 15; i >= 0; i--) {
+            chars[start + i] = HEX_DIGITS[(int) word & 0xf];
+            word >>>= 4;
+        }
+    }
+
+    /**
+     * Returns true if the given object is an ID with the same bytes.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId id = (ObjectId) other;
+        return word0 == id.word0 && word1 == id.word1 && word2 == id.word2
+                && word3 == id.word3;
+    }
+
+    /**
+     * Returns the first four bytes of the ID. IDs are hashes, so these are already
+     * evenly spread.
+     */
+    @Override
+    public int hashCode() {
+        return (int) (word0 >>> 32);
+    }
+
+    /**
+     * Compares IDs by their bytes as unsigned values, the same order as their hex forms.
+     */
+    @Override
+    public int compareTo(ObjectId other) {
+        int result = Long.compareUnsigned(word0, other.word0);
+        if (result == 0) {
+            result = Long.compareUnsigned(word1, other.word1);
+        }
+        if (result == 0) {
+            result = Long.compareUnsigned(word2, other.word2);
+        }
+        if (result == 0) {
+            result = Long.compareUnsigned(word3, other.word3);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,537 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+
+public class ObjectStore {
+    
+    private static final String OBJECTS = ".gitlet" + File.separator + "objects";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * Size of the chunks files are read in to be hashed. Each is read straight into a
+     * direct buffer and fed to the digest, so large files never pass through the heap.
+     */
+    private static final int HASH_CHUNK_SIZE = 1024 * 1024;
+    
+    /**
+     * Upper bound on threads storing files at once. Hashing and deflating are CPU
+     * bound, so one thread per core is used up to this many.
+     */
+    private static final int MAX_THREADS = 32;
+    
+    /**
+     * Number of files each store task handles.
+     */
+    private static final int BATCH_SIZE = 32;
+    
+    /**
+     * A SHA-256 digest and a hashing buffer for each thread, created once per thread
+     * and reused for every file it hashes.
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+    private static final ThreadLocal<ByteBuffer> HASH_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(HASH_CHUNK_SIZE);
+        }
+    };
+    
+    /**
+     * Every blob starts with a header: one byte naming how the contents are encoded,
+     * followed by the size of the original contents as a long.
+     */
+    private static final int HEADER_SIZE = 9;
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+    
+    /**
+     * Files whose first block deflates to more than this fraction of its size, such as
+     * images or archives, are stored as is so they can be moved by the kernel.
+     */
+    private static final double INCOMPRESSIBLE = 0.9;
+    
+    /**
+     * Stores the contents of the given file in the working directory as a blob.
+     * Blobs are named by the SHA-256 hash of their contents, so identical content
+     * is only ever stored once. Returns the blob ID.
+     * The hash comes from the index when its entry is up to date. New contents are
+     * deflated as configured (see compressionLevel); contents stored uncompressed are
+     * copied into the store by the kernel. The file's size and mtime are checked
+     * afterwards so that a file changed while it was being stored is hashed and
+     * written again in a single pass instead.
+     */
+    public static String store(String fileName, Index index) {
+        File source = new File(fileName);
+        long length = source.length();
+        long modified = source.lastModified();
+        String id = index.getHash(fileName);
+        if (id == null) {
+            return null;
+        }
+        if (contains(id)) {
+            return id;
+        }
+        File blob = getBlob(id);
+        File temp = null;
+        try {
+            blob.getParentFile().mkdirs();
+            temp = File.createTempFile("blob", ".tmp", blob.getParentFile());
+            int level = compressionLevel();
+            if (level == Deflater.NO_COMPRESSION || !isCompressible(source, level)) {
+                writeStored(source, temp);
+            } else {
+                writeDeflated(source, temp, level);
+            }
+            if (source.length() != length || source.lastModified() != modified) {
+                temp.delete();
+                return storeStreaming(fileName);
+            }
+            Files.move(temp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return id;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (temp != null) {
+            temp.delete();
+        }
+        return null;
+    }
+    
+    /**
+     * Stores every given file in the working directory as a blob, and returns a map of
+     * each file name to its blob ID. Files are hashed and stored in batches on a pool of
+     * one thread per core, so a commit of many files uses every core. Files that can't
+     * be stored, such as files deleted since they were staged, are left out of the map.
+     */
+    public static HashMap<String, String> storeAll(Collection<String> fileNames,
+            Index index) {
+        ArrayList<String> names = new ArrayList<String>(fileNames);
+        ConcurrentHashMap<String, String> ids = new ConcurrentHashMap<String, String>();
+        int threads = Math.min(MAX_THREADS, Math.max(1,
+                Math.min(Runtime.getRuntime().availableProcessors(),
+                (names.size() + BATCH_SIZE - 1) / BATCH_SIZE)));
+        if (threads == 1) {
+            new StoreTask(names, ids, index).run();
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+            for (int start = 0; start < names.size(); start += BATCH_SIZE) {
+                int end = Math.min(start + BATCH_SIZE, names.size());
+                results.add(pool.submit(new StoreTask(names.subList(start, end), ids, index)));
+            }
+            try {
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return new HashMap<String, String>(ids);
+    }
+    
+    /**
+     * Copies the contents of the blob with the given ID to the given destination.
+     * The destination gets the current time as its modification time, like any file
+     * just written, so the index never mistakes it for the file it replaced.
+     * Compressed blobs are inflated as they are streamed out.
+     * Assumes the destination's parent folder exists.
+     */
+    public static void copyOut(String id, File destination) throws IOException {
+        File blob = getBlob(id);
+        if (!blob.exists()) {
+            PackFile pack = PackFile.find(id);
+            if (pack == null) {
+                throw new IOException("Missing object " + id + ".");
+            }
+            InputStream in = pack.open(id);
+            OutputStream out = new FileOutputStream(destination);
+            copy(in, out, null);
+            in.close();
+            out.close();
+            return;
+        }
+        FileInputStream fileIn = new FileInputStream(blob);
+        int codec = fileIn.read();
+        if (codec == STORED) {
+            fileIn.close();
+            transfer(blob, HEADER_SIZE, destination);
+        } else {
+            fileIn.skip(HEADER_SIZE - 1);
+            InputStream in = new InflaterInputStream(
+                    new BufferedInputStream(fileIn, BUFFER_SIZE));
+            OutputStream out = new FileOutputStream(destination);
+            copy(in, out, null);
+            in.close();
+            out.close();
+        }
+    }
+    
+    /**
+     * Returns a stream of the contents of the blob with the given ID, inflating them
+     * as they are read. Falls back to the packs if the blob isn't stored loose.
+     */
+    public static InputStream open(String id) throws IOException {
+        File blob = getBlob(id);
+        if (!blob.exists()) {
+            PackFile pack = PackFile.find(id);
+            if (pack != null) {
+                return pack.open(id);
+            }
+        }
+        FileInputStream fileIn = new FileInputStream(blob);
+        int codec = fileIn.read();
+        fileIn.skip(HEADER_SIZE - 1);
+        if (codec == DEFLATED) {
+            return new InflaterInputStream(new BufferedInputStream(fileIn, BUFFER_SIZE));
+        }
+        return fileIn;
+    }
+    
+    /**
+     * Returns the size of the original contents of the blob with the given ID,
+     * read from its header, or -1 if the blob can't be read.
+     */
+    public static long size(String id) {
+        try {
+            if (!getBlob(id).exists()) {
+                PackFile pack = PackFile.find(id);
+                return pack == null ? -1 : pack.size(id);
+            }
+            DataInputStream in = new DataInputStream(new FileInputStream(getBlob(id)));
+            in.readByte();
+            long size = in.readLong();
+            in.close();
+            return size;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Returns the compression level for new blobs, from 0 (store uncompressed) to 9
+     * (smallest). Set with compression=<level> in .gitlet/config, and 6 by default.
+     * Setting codec=fast instead uses the fastest level.
+     */
+    private static int compressionLevel() {
+        if (Config.get("codec", "deflate").equals("fast")) {
+            return Deflater.BEST_SPEED;
+        }
+        int level = Config.getInt("compression", 6);
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            return 6;
+        }
+        return level;
+    }
+    
+    /**
+     * Returns true if the first block of the given file shrinks noticeably when deflated.
+     */
+    private static boolean isCompressible(File source, int level) throws IOException {
+        byte[] sample = new byte[BUFFER_SIZE];
+        InputStream in = new FileInputStream(source);
+        int length = 0;
+        int read;
+        while (length < sample.length
+                && (read = in.read(sample, length, sample.length - length)) != -1) {
+            length += read;
+        }
+        in.close();
+        if (length == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(level);
+        deflater.setInput(sample, 0, length);
+        deflater.finish();
+        byte[] output = new byte[BUFFER_SIZE];
+        long compressed = 0;
+        while (!deflater.finished()) {
+            compressed += deflater.deflate(output);
+        }
+        deflater.end();
+        return compressed < length * INCOMPRESSIBLE;
+    }
+    
+    /**
+     * Writes the header and then the contents of source, uncompressed, to destination.
+     * The contents are moved by the kernel with FileChannel.transferTo.
+     */
+    private static void writeStored(File source, File destination) throws IOException {
+        FileInputStream fileIn = new FileInputStream(source);
+        FileOutputStream fileOut = new FileOutputStream(destination);
+        FileChannel in = fileIn.getChannel();
+        FileChannel out = fileOut.getChannel();
+        out.write(ByteBuffer.wrap(header(STORED, in.size())));
+        long position = 0;
+        long size = in.size();
+        while (position < size) {
+            long transferred = in.transferTo(position, size - position, out);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+        fileIn.close();
+        fileOut.close();
+        if (position != size) {
+            throw new IOException("Could not store " + source + ".");
+        }
+    }
+    
+    /**
+     * Writes the header and then the deflated contents of source to destination, one
+     * buffer at a time.
+     */
+    private static void writeDeflated(File source, File destination, int level)
+            throws IOException {
+        FileOutputStream fileOut = new FileOutputStream(destination);
+        fileOut.write(header(DEFLATED, source.length()));
+        Deflater deflater = new Deflater(level);
+        OutputStream out = new DeflaterOutputStream(fileOut, deflater, BUFFER_SIZE);
+        InputStream in = new FileInputStream(source);
+        copy(in, out, null);
+        in.close();
+        out.close();
+        deflater.end();
+    }
+    
+    /**
+     * Copies the bytes of source from the given offset onwards to destination with
+     * FileChannel.transferTo, so the bytes are moved by the kernel without passing
+     * through the heap. Falls back to copying through a buffer if the channels
+     * can't transfer.
+     * Hard links are deliberately not used: a working file linked to a blob would let an
+     * in-place edit of the working file silently change committed contents.
+     */
+    private static void transfer(File source, long offset, File destination)
+            throws IOException {
+        FileChannel in = new FileInputStream(source).getChannel();
+        FileChannel out = new FileOutputStream(destination).getChannel();
+        long position = offset;
+        long size = in.size();
+        try {
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        } catch (IOException e) {
+            position = -1;
+        } finally {
+            in.close();
+            out.close();
+        }
+        if (position != size) {
+            InputStream fallbackIn = new FileInputStream(source);
+            fallbackIn.skip(offset);
+            OutputStream fallbackOut = new FileOutputStream(destination);
+            copy(fallbackIn, fallbackOut, null);
+            fallbackIn.close();
+            fallbackOut.close();
+        }
+    }
+    
+    /**
+     * Stores the given file by hashing and deflating it in a single pass through a
+     * buffer, so the stored bytes are exactly the hashed ones. The size in the header
+     * is filled in once the whole file has been read. Returns the blob ID.
+     */
+    private static String storeStreaming(String fileName) {
+        File objects = new File(OBJECTS);
+        if (!objects.exists()) {
+            objects.mkdirs();
+        }
+        File temp = null;
+        try {
+            temp = File.createTempFile("blob", ".tmp", objects);
+            MessageDigest digest = DIGEST.get();
+            digest.reset();
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            fileOut.write(header(DEFLATED, 0));
+            Deflater deflater = new Deflater(compressionLevel());
+            OutputStream out = new DeflaterOutputStream(fileOut, deflater, BUFFER_SIZE);
+            InputStream in = new FileInputStream(fileName);
+            long size = copy(in, out, digest);
+            in.close();
+            out.close();
+            deflater.end();
+            
+            RandomAccessFile headerOut = new RandomAccessFile(temp, "rw");
+            headerOut.write(header(DEFLATED, size));
+            headerOut.close();
+            
+            String id = ObjectId.toHex(digest.digest());
+            File blob = getBlob(id);
+            if (contains(id)) {
+                temp.delete();
+            } else {
+                blob.getParentFile().mkdirs();
+                Files.move(temp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            return id;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (temp != null) {
+            temp.delete();
+        }
+        return null;
+    }
+    
+    /**
+     * Returns a blob header for contents of the given size encoded with the given codec.
+     */
+    private static byte[] header(byte codec, long size) {
+        return ByteBuffer.allocate(HEADER_SIZE).put(codec).putLong(size).array();
+    }
+    
+    /**
+     * Copies in to out through a buffer, also feeding every byte to digest if it isn't
+     * null. Returns the number of bytes copied.
+     */
+    private static long copy(InputStream in, OutputStream out, MessageDigest digest)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (digest != null) {
+                digest.update(buffer, 0, read);
+            }
+            out.write(buffer, 0, read);
+            size += read;
+        }
+        return size;
+    }
+    
+    /**
+     * Returns the blob ID the given file in the working directory would be stored under,
+     * without storing it. The file is read in chunks through this thread's digest and
+     * buffer, never read whole, so it is safe to call from several threads at once.
+     */
+    public static String hashFile(String fileName) {
+        try {
+            MessageDigest digest = DIGEST.get();
+            digest.reset();
+            ByteBuffer buffer = HASH_BUFFER.get();
+            FileInputStream in = new FileInputStream(fileName);
+            FileChannel channel = in.getChannel();
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            in.close();
+            return ObjectId.toHex(digest.digest());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the file holding the blob with the given ID.
+     * The first two characters of the ID name a fan-out folder so that
+     * no single folder grows too large.
+     */
+    public static File getBlob(String id) {
+        return new File(OBJECTS + File.separator + id.substring(0, 2)
+                + File.separator + id.substring(2));
+    }
+    
+    /**
+     * Returns true if a blob with the given ID is stored, either loose or in a pack.
+     */
+    public static boolean contains(String id) {
+        return id != null && (getBlob(id).exists() || PackFile.find(id) != null);
+    }
+    
+    /**
+     * Returns the IDs of all blobs stored loose, that is, not yet in a pack.
+     */
+    public static ArrayList<String> listLoose() {
+        ArrayList<String> ids = new ArrayList<String>();
+        File[] folders = new File(OBJECTS).listFiles();
+        if (folders == null) {
+            return ids;
+        }
+        for (File folder : folders) {
+            String[] names = folder.list();
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (!name.endsWith(".tmp")) {
+                    ids.add(folder.getName() + name);
+                }
+            }
+        }
+        return ids;
+    }
+    
+    /**
+     * Stores one batch of files from the working directory.
+     */
+    private static class StoreTask implements Runnable {
+        private final List<String> fileNames;
+        private final ConcurrentHashMap<String, String> ids;
+        private final Index index;
+        
+        StoreTask(List<String> fileNames, ConcurrentHashMap<String, String> ids, Index index) {
+            this.fileNames = fileNames;
+            this.ids = ids;
+            this.index = index;
+        }
+        
+        @Override
+        public void run() {
+            for (String fileName : fileNames) {
+                String id = store(fileName, index);
+                if (id != null) {
+                    ids.put(fileName, id);
+                }
+            }
+        }
+    }
+}
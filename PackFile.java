@@ -0,0 +1,562 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+
+public class PackFile {
+    
+    private static final String PACKS = ".gitlet" + File.separator + "pack";
+    private static final int MAGIC = 0x47504b31;
+    private static final int INDEX_MAGIC = 0x47494458;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+    
+    /**
+     * Sizes of the parts of a pack index: the magic number and object count, the fanout
+     * table, and one object ID.
+     */
+    private static final int INDEX_HEADER = 8;
+    private static final int FANOUT = 256 * 4;
+    private static final int ID_SIZE = 32;
+    
+    /**
+     * Objects larger than this are never deltified, since deltas are built in memory.
+     */
+    private static final long DELTA_LIMIT = 64L * 1024 * 1024;
+    
+    /**
+     * Longest chain of deltas an object may sit at the end of, which bounds the work
+     * needed to rebuild it.
+     */
+    private static final int MAX_DEPTH = 50;
+    
+    /**
+     * Packs are mapped whole, and a mapping can't be larger than 2 GB. A new pack is
+     * started once the objects in the current one add up to PACK_LIMIT, and objects
+     * larger than OBJECT_LIMIT are left loose.
+     */
+    private static final long PACK_LIMIT = 1024L * 1024 * 1024;
+    private static final long OBJECT_LIMIT = 512L * 1024 * 1024;
+    
+    private static ArrayList<PackFile> packs;
+    
+    private final File packFile;
+    private final MappedByteBuffer pack;
+    private final MappedByteBuffer index;
+    private final int count;
+    
+    /**
+     * Initializes all class variables, mapping the given pack and its index.
+     * The index holds a fanout table, where entry b counts the objects whose IDs start
+     * with a byte up to b, then every object ID in sorted order, then the offset of
+     * each object's entry in the pack in the same order.
+     */
+    private PackFile(File packFile, File indexFile) throws IOException {
+        this.packFile = packFile;
+        this.pack = map(packFile);
+        this.index = map(indexFile);
+        if (pack.getInt(0) != MAGIC || index.getInt(0) != INDEX_MAGIC) {
+            throw new IOException("Not a pack: " + packFile + ".");
+        }
+        this.count = index.getInt(4);
+    }
+    
+    /**
+     * Returns a read-only mapping of the whole of the given file.
+     */
+    private static MappedByteBuffer map(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Forgets the packs mapped so far, so that they are listed again on the next lookup.
+     * Used once packs may have been added or objects moved into them.
+     */
+    public static synchronized void forget() {
+        packs = null;
+    }
+    
+    /**
+     * Returns the pack holding the object with the given ID, or null if no pack has it.
+     * Packs are mapped once, the first time any pack is searched. The ID is parsed once
+     * and then looked up in each pack.
+     */
+    public static synchronized PackFile find(String hex) {
+        if (packs == null) {
+            packs = new ArrayList<PackFile>();
+            File[] files = new File(PACKS).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (!name.endsWith(".idx")) {
+                        continue;
+                    }
+                    File packFile = new File(PACKS, name.substring(0, name.length() - 4)
+                            + ".pack");
+                    try {
+                        packs.add(new PackFile(packFile, file));
+                    } catch (IOException e) {
+                        System.out.println("IOException while loading pack " + name + ".");
+                    }
+                }
+            }
+        }
+        ObjectId id = ObjectId.parse(hex);
+        if (id == null) {
+            return null;
+        }
+        for (PackFile pack : packs) {
+            if (pack.indexOf(id) >= 0) {
+                return pack;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the position of the given ID in this pack's index, or -1 if it isn't there.
+     * The fanout table narrows the search to IDs with the same first byte, which are then
+     * binary searched in place, so the search itself allocates nothing.
+     */
+    private int indexOf(ObjectId id) {
+        int first = id.firstByte();
+        int low = first == 0 ? 0 : index.getInt(INDEX_HEADER + (first - 1) * 4);
+        int high = index.getInt(INDEX_HEADER + first * 4) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = id.compareTo(index, INDEX_HEADER + FANOUT + middle * ID_SIZE);
+            if (comparison == 0) {
+                return middle;
+            } else if (comparison < 0) {
+                high = middle - 1;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the offset of the entry of the object with the given ID in the pack.
+     */
+    private int offset(String id) {
+        return offset(ObjectId.parse(id));
+    }
+    
+    /**
+     * Returns the offset of the entry of the object with the given ID in the pack.
+     */
+    private int offset(ObjectId id) {
+        int position = id == null ? -1 : indexOf(id);
+        if (position < 0) {
+            throw new IllegalArgumentException("Object " + id + " is not in " + packFile + ".");
+        }
+        return (int) index.getLong(INDEX_HEADER + FANOUT + count * ID_SIZE + position * 8);
+    }
+    
+    /**
+     * Returns the size of the original contents of the object with the given ID.
+     */
+    public long size(String id) {
+        return pack.getLong(offset(id) + 1);
+    }
+    
+    /**
+     * Returns a stream of the contents of the object with the given ID.
+     * Whole objects are inflated straight from the mapped pack as they are read;
+     * deltified objects are rebuilt from their chain of bases first.
+     */
+    public InputStream open(String id) throws IOException {
+        int offset = offset(id);
+        if (pack.get(offset) == FULL) {
+            return new InflaterInputStream(new BufferInputStream(data(offset + 9)));
+        }
+        return new ByteArrayInputStream(readBytes(offset));
+    }
+    
+    /**
+     * Returns a view of the deflated data of an entry, given the position of its length.
+     */
+    private ByteBuffer data(int position) {
+        ByteBuffer data = pack.duplicate();
+        data.position(position + 4);
+        data.limit(position + 4 + pack.getInt(position));
+        return data.slice();
+    }
+    
+    /**
+     * Returns the contents of the object whose entry is at the given offset. Follows the
+     * chain of bases until a whole object is found, then applies the deltas on the way
+     * back.
+     */
+    private byte[] readBytes(int offset) throws IOException {
+        ArrayList<byte[]> deltas = new ArrayList<byte[]>();
+        ArrayList<Long> sizes = new ArrayList<Long>();
+        byte[] contents = null;
+        int current = offset;
+        while (contents == null) {
+            byte type = pack.get(current);
+            long size = pack.getLong(current + 1);
+            if (type == FULL) {
+                contents = inflate(data(current + 9), size);
+            } else {
+                deltas.add(inflate(data(current + 9 + ID_SIZE), -1));
+                sizes.add(size);
+                current = offset(ObjectId.read(pack, current + 9));
+            }
+        }
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            contents = Delta.apply(contents, deltas.get(i), sizes.get(i));
+        }
+        return contents;
+    }
+    
+    /**
+     * Gathers every loose object into packs, then deletes the loose copies.
+     * Versions of the same file are ordered by commit time, and each version is stored
+     * as a delta against the one before it when that is smaller than storing it whole.
+     * Prints how many objects were packed.
+     */
+    public static void pack(Data data) {
+        HashSet<String> loose = new HashSet<String>();
+        for (String id : ObjectStore.listLoose()) {
+            if (ObjectStore.size(id) <= OBJECT_LIMIT) {
+                loose.add(id);
+            }
+        }
+        if (loose.isEmpty()) {
+            System.out.println("Nothing to pack."); return;
+        }
+        LinkedHashMap<String, String> bases = chooseBases(data, loose);
+        for (String id : loose) {
+            if (!bases.containsKey(id)) {
+                bases.put(id, null);
+            }
+        }
+        
+        int packed = 0;
+        int deltas = 0;
+        LinkedHashMap<String, String> batch = new LinkedHashMap<String, String>();
+        long batchSize = 0;
+        for (String id : bases.keySet()) {
+            long size = ObjectStore.size(id);
+            if (!batch.isEmpty() && batchSize + size > PACK_LIMIT) {
+                int written = writePack(batch);
+                if (written < 0) {
+                    return;
+                }
+                packed += batch.size();
+                deltas += written;
+                batch.clear();
+                batchSize = 0;
+            }
+            String base = bases.get(id);
+            batch.put(id, base != null && batch.containsKey(base) ? base : null);
+            batchSize += size;
+        }
+        int written = writePack(batch);
+        if (written < 0) {
+            return;
+        }
+        packed += batch.size();
+        deltas += written;
+        System.out.println("Packed " + packed + " objects, " + deltas + " as deltas.");
+    }
+    
+    /**
+     * Writes the given objects to a new pack and index, then deletes their loose copies.
+     * The pack is moved into place before its index, so a pack is never found before it
+     * is complete. Returns how many objects were stored as deltas, or -1 on failure.
+     */
+    private static int writePack(LinkedHashMap<String, String> batch) {
+        File packs = new File(PACKS);
+        packs.mkdirs();
+        File tempPack = null;
+        File tempIndex = null;
+        try {
+            String name = "pack-" + packName(batch.keySet());
+            tempPack = File.createTempFile("pack", ".tmp", packs);
+            tempIndex = File.createTempFile("pack", ".tmp", packs);
+            TreeMap<String, Long> offsets = new TreeMap<String, Long>();
+            int deltas = writeEntries(tempPack, batch, offsets);
+            writeIndex(tempIndex, offsets);
+            MetadataStore.replace(tempPack, new File(packs, name + ".pack"));
+            MetadataStore.replace(tempIndex, new File(packs, name + ".idx"));
+            forget();
+            for (String id : offsets.keySet()) {
+                ObjectStore.getBlob(id).delete();
+            }
+            return deltas;
+        } catch (IOException e) {
+            System.out.println("IOException while packing objects.");
+            if (tempPack != null) {
+                tempPack.delete();
+            }
+            if (tempIndex != null) {
+                tempIndex.delete();
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the objects of the batch in the order they first appeared in history,
+     * each mapped to the previous version of the same file if that version is also
+     * in the batch, or to null.
+     */
+    private static LinkedHashMap<String, String> chooseBases(Data data, HashSet<String> batch) {
+        ArrayList<Commit> commits = new ArrayList<Commit>();
+        for (String commitID : data.getCommitIDs()) {
+            commits.add(data.getCommit(commitID));
+        }
+        Collections.sort(commits, new Comparator<Commit>() {
+            @Override
+            public int compare(Commit a, Commit b) {
+                return Long.compare(a.getTimestamp(), b.getTimestamp());
+            }
+        });
+        LinkedHashMap<String, String> bases = new LinkedHashMap<String, String>();
+        HashMap<String, String> lastVersions = new HashMap<String, String>();
+        for (Commit commit : commits) {
+            for (String fileName : commit.getNewFiles()) {
+                String id = commit.getFile(fileName);
+                if (id == null) {
+                    continue;
+                }
+                if (batch.contains(id) && !bases.containsKey(id)) {
+                    String previous = lastVersions.get(fileName);
+                    bases.put(id, previous != null && bases.containsKey(previous)
+                            ? previous : null);
+                }
+                lastVersions.put(fileName, id);
+            }
+        }
+        return bases;
+    }
+    
+    /**
+     * Writes the given objects to a pack file, recording the offset of each entry.
+     * Each entry is a type byte, the size of the contents, the base's ID for deltas,
+     * the length of the deflated data, and the data itself. Returns how many objects
+     * were stored as deltas.
+     */
+    private static int writeEntries(File file, LinkedHashMap<String, String> bases,
+            TreeMap<String, Long> offsets) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        HashMap<String, Integer> depths = new HashMap<String, Integer>();
+        int deltas = 0;
+        try {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(bases.size());
+            for (String id : bases.keySet()) {
+                offsets.put(id, out.getFilePointer());
+                long size = ObjectStore.size(id);
+                String base = bases.get(id);
+                byte[] delta = null;
+                byte[] whole = null;
+                if (base != null && depths.get(base) < MAX_DEPTH
+                        && size <= DELTA_LIMIT && ObjectStore.size(base) <= DELTA_LIMIT) {
+                    byte[] contents = readLoose(id);
+                    delta = deflate(Delta.create(readLoose(base), contents));
+                    whole = deflate(contents);
+                }
+                if (delta != null && delta.length < whole.length) {
+                    out.writeByte(DELTA);
+                    out.writeLong(size);
+                    out.write(ObjectId.toBytes(base));
+                    out.writeInt(delta.length);
+                    out.write(delta);
+                    depths.put(id, depths.get(base) + 1);
+                    deltas++;
+                } else {
+                    out.writeByte(FULL);
+                    out.writeLong(size);
+                    if (whole != null) {
+                        out.writeInt(whole.length);
+                        out.write(whole);
+                    } else {
+                        writeDeflated(out, id);
+                    }
+                    depths.put(id, 0);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return deltas;
+    }
+    
+    /**
+     * Writes the length of the deflated contents of the given loose object, then the
+     * deflated contents themselves, streaming them a buffer at a time. The length is
+     * filled in once the contents have been written.
+     */
+    private static void writeDeflated(RandomAccessFile out, String id) throws IOException {
+        long lengthOffset = out.getFilePointer();
+        out.writeInt(0);
+        Deflater deflater = new Deflater();
+        DeflaterOutputStream deflaterOut = new DeflaterOutputStream(
+                new FileOutputStream(out.getFD()), deflater, BUFFER_SIZE);
+        InputStream in = ObjectStore.open(id);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            deflaterOut.write(buffer, 0, read);
+        }
+        in.close();
+        deflaterOut.finish();
+        deflaterOut.flush();
+        deflater.end();
+        long end = out.getFilePointer();
+        out.seek(lengthOffset);
+        out.writeInt((int) (end - lengthOffset - 4));
+        out.seek(end);
+    }
+    
+    /**
+     * Writes the index of a pack: a magic number, the number of objects, the fanout
+     * table, the sorted object IDs as 32 bytes each, and the offset of each entry.
+     */
+    private static void writeIndex(File file, TreeMap<String, Long> offsets)
+            throws IOException {
+        int[] fanout = new int[256];
+        for (String id : offsets.keySet()) {
+            fanout[ObjectId.parse(id).firstByte()]++;
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(offsets.size());
+        int total = 0;
+        for (int entries : fanout) {
+            total += entries;
+            out.writeInt(total);
+        }
+        for (String id : offsets.keySet()) {
+            out.write(ObjectId.toBytes(id));
+        }
+        for (long offset : offsets.values()) {
+            out.writeLong(offset);
+        }
+        out.close();
+    }
+    
+    /**
+     * Returns the whole contents of the given loose object.
+     */
+    private static byte[] readLoose(String id) throws IOException {
+        InputStream in = ObjectStore.open(id);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+    
+    /**
+     * Returns the given bytes, deflated.
+     */
+    private static byte[] deflate(byte[] bytes) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        OutputStream out = new DeflaterOutputStream(bytesOut);
+        out.write(bytes);
+        out.close();
+        return bytesOut.toByteArray();
+    }
+    
+    /**
+     * Returns the given deflated bytes, inflated. size is the expected inflated size,
+     * or -1 if it isn't known.
+     */
+    private static byte[] inflate(ByteBuffer bytes, long size) throws IOException {
+        InputStream in = new InflaterInputStream(new BufferInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                size < 0 ? bytes.remaining() * 2 : (int) size);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+    
+    /**
+     * Returns a name for a pack of the given objects: the hex SHA-256 of their IDs.
+     */
+    private static String packName(Iterable<String> ids) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String id : ids) {
+                digest.update(ObjectId.toBytes(id));
+            }
+            return ObjectId.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(System.currentTimeMillis());
+        }
+    }
+    
+    /**
+     * Reads the remaining bytes of a buffer, such as a view of a mapped pack.
+     */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+        
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+    }
+}
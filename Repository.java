@@ -0,0 +1,171 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+
+
+public class Repository {
+    
+    private static final String LOCK = ".gitlet" + File.separator + "lock";
+    
+    private Data data;
+    private boolean readOnly;
+    private RandomAccessFile lockFile;
+    private FileLock lock;
+    private long version;
+    private TreeWatcher watcher;
+    
+    /**
+     * Initializes all class variables. Nothing is read until data is first needed.
+     * readOnly is true for commands that never change the repository, which may run
+     * alongside each other.
+     */
+    public Repository(boolean readOnly) {
+        this.data = null;
+        this.readOnly = readOnly;
+        this.lockFile = null;
+        this.lock = null;
+        this.version = 0;
+        this.watcher = null;
+    }
+    
+    /**
+     * Sets whether the next command to run is read-only. Used by the daemon, which runs
+     * many commands against one repository; only called while the lock isn't held.
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+    
+    /**
+     * Returns the watcher of the working directory, or null if it isn't watched.
+     * Only a daemon started with --watch watches it.
+     */
+    public TreeWatcher getWatcher() {
+        return watcher;
+    }
+    
+    /**
+     * Sets the watcher of the working directory, kept for every later command.
+     */
+    public void setWatcher(TreeWatcher watcher) {
+        this.watcher = watcher;
+    }
+    
+    /**
+     * Returns true if a gitlet repository exists in the current directory.
+     */
+    public boolean exists() {
+        return new File(".gitlet").exists();
+    }
+    
+    /**
+     * Creates a new, empty repository in the current directory.
+     * Assumes no repository exists yet.
+     */
+    public Data create() {
+        new File(".gitlet").mkdir();
+        lock();
+        MetadataStore.create();
+        data = new Data();
+        return data;
+    }
+    
+    /**
+     * Returns the data of this repository, loading it the first time it is asked for.
+     * Every later call shares the same data, including calls from later commands run
+     * by the daemon, unless another process has changed the repository since.
+     * The repository is locked before anything is read, and stays locked until close.
+     * Returns null if no repository exists.
+     */
+    public Data getData() {
+        if (MetadataStore.exists()) {
+            lock();
+            if (data == null) {
+                data = Data.load();
+            }
+        }
+        return data;
+    }
+    
+    /**
+     * Saves everything that changed during this command, then releases the lock.
+     * Called once, after the command has finished. A command holding the exclusive lock
+     * also counts up the version number kept in the lock file, which tells processes
+     * that keep data between commands that it has changed.
+     */
+    public void close() {
+        if (data != null) {
+            data.save();
+        }
+        if (lock != null && !readOnly) {
+            try {
+                version++;
+                lockFile.seek(0);
+                lockFile.writeLong(version);
+            } catch (IOException e) {
+                System.out.println("IOException while saving repository version.");
+            }
+        }
+        unlock();
+    }
+    
+    /**
+     * Releases the lock without saving, and forgets the data, which a failed command
+     * may have left half changed. The watcher's changes may have been taken by the
+     * failed command, so it forgets them and has every file checked again.
+     */
+    public void abandon() {
+        data = null;
+        if (watcher != null) {
+            watcher.forget();
+        }
+        PackFile.forget();
+        unlock();
+    }
+    
+    /**
+     * Waits for and takes the repository lock, a lock on the whole of .gitlet/lock held
+     * through FileChannel.lock so that it works across processes. Read-only commands take
+     * a shared lock, so they never wait for each other; any other command takes an
+     * exclusive lock, so it waits for every other command to finish and none can start
+     * until it has saved. A reader therefore never sees a command's changes half made.
+     * If another process has changed the repository since data was loaded, the data is
+     * dropped so that it is loaded again.
+     */
+    private void lock() {
+        if (lock != null) {
+            return;
+        }
+        try {
+            lockFile = new RandomAccessFile(LOCK, "rw");
+            lock = lockFile.getChannel().lock(0, Long.MAX_VALUE, readOnly);
+            long current = lockFile.length() >= 8 ? lockFile.readLong() : 0;
+            if (current != version) {
+                data = null;
+                PackFile.forget();
+                version = current;
+            }
+        } catch (IOException e) {
+            System.out.println("IOException while locking repository.");
+        }
+    }
+    
+    /**
+     * Releases the repository lock, if it is held.
+     */
+    private void unlock() {
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (lockFile != null) {
+                lockFile.close();
+            }
+        } catch (IOException e) {
+            System.out.println("IOException while unlocking repository.");
+        }
+        lock = null;
+        lockFile = null;
+    }
+}
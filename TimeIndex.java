@@ -0,0 +1,209 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+public class TimeIndex {
+    
+    private static final String TIMES = ".gitlet" + File.separator + "commit-times";
+    
+    /**
+     * Each record is the time a commit was made, in milliseconds, followed by its ID
+     * as 32 bytes. Records are sorted by time.
+     */
+    private static final int ID_SIZE = 32;
+    private static final int RECORD_SIZE = 8 + ID_SIZE;
+    
+    private final ByteBuffer records;
+    private final int count;
+    
+    /**
+     * Initializes all class variables with the given sorted records.
+     */
+    private TimeIndex(ByteBuffer records) {
+        this.records = records;
+        this.count = records.capacity() / RECORD_SIZE;
+    }
+    
+    /**
+     * Maps the saved index of commits by time. If there is none yet but there are
+     * commits, such as in a repository made before the index existed, it is first built
+     * from every commit in data.
+     */
+    public static TimeIndex load(Data data) {
+        try {
+            if (!new File(TIMES).exists()) {
+                rebuild(data);
+            }
+            return new TimeIndex(map());
+        } catch (IOException e) {
+            System.out.println("IOException while loading commit times.");
+        }
+        return new TimeIndex(ByteBuffer.allocate(0));
+    }
+    
+    /**
+     * Returns a read-only mapping of the saved records.
+     */
+    private static ByteBuffer map() throws IOException {
+        FileInputStream in = new FileInputStream(TIMES);
+        FileChannel channel = in.getChannel();
+        long size = channel.size() - channel.size() % RECORD_SIZE;
+        ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        in.close();
+        return records;
+    }
+    
+    /**
+     * Appends a record for each of the given new commits. Commits are made in time
+     * order, so this keeps the records sorted; if the clock has gone backwards, the
+     * file is re-sorted. If there is no index yet, it is built from every commit in
+     * data, which already includes the given commits, so nothing is appended.
+     */
+    public static void append(List<Commit> commits, Data data) {
+        if (commits.isEmpty()) {
+            return;
+        }
+        File timesFile = new File(TIMES);
+        try {
+            if (!timesFile.exists()) {
+                rebuild(data);
+                return;
+            }
+            RandomAccessFile out = new RandomAccessFile(timesFile, "rw");
+            long length = out.length() - out.length() % RECORD_SIZE;
+            long last = Long.MIN_VALUE;
+            if (length > 0) {
+                out.seek(length - RECORD_SIZE);
+                last = out.readLong();
+            }
+            boolean sorted = true;
+            out.seek(length);
+            for (Commit commit : commits) {
+                sorted = sorted && last <= commit.getTimestamp();
+                last = commit.getTimestamp();
+                out.writeLong(commit.getTimestamp());
+                out.write(ObjectId.toBytes(commit.getHash()));
+            }
+            out.close();
+            if (!sorted) {
+                resort();
+            }
+        } catch (IOException e) {
+            System.out.println("IOException while saving commit times.");
+        }
+    }
+    
+    /**
+     * Returns the number of commits in the index.
+     */
+    public int count() {
+        return count;
+    }
+    
+    /**
+     * Returns the time of the commit at the given position.
+     */
+    public long time(int position) {
+        return records.getLong(position * RECORD_SIZE);
+    }
+    
+    /**
+     * Returns the ID of the commit at the given position.
+     */
+    public String id(int position) {
+        return ObjectId.toHex(records, position * RECORD_SIZE + 8);
+    }
+    
+    /**
+     * Returns the position of the first commit made at or after the given time, or
+     * count() if there is none, found by binary search.
+     */
+    public int firstAtOrAfter(long time) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (time(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Writes the index from scratch, with a record for every commit in data.
+     */
+    private static void rebuild(Data data) throws IOException {
+        final ArrayList<Commit> commits = new ArrayList<Commit>();
+        for (String commitID : data.getCommitIDs()) {
+            commits.add(data.readCommit(commitID));
+        }
+        Collections.sort(commits, new Comparator<Commit>() {
+            @Override
+            public int compare(Commit a, Commit b) {
+                return Long.compare(a.getTimestamp(), b.getTimestamp());
+            }
+        });
+        ArrayList<Long> times = new ArrayList<Long>();
+        ArrayList<String> ids = new ArrayList<String>();
+        for (Commit commit : commits) {
+            times.add(commit.getTimestamp());
+            ids.add(commit.getHash());
+        }
+        write(times, ids);
+    }
+    
+    /**
+     * Reads every record, sorts them by time and writes them back.
+     */
+    private static void resort() throws IOException {
+        final TimeIndex index = new TimeIndex(map());
+        final ArrayList<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < index.count; i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(index.time(a), index.time(b));
+            }
+        });
+        ArrayList<Long> times = new ArrayList<Long>();
+        ArrayList<String> ids = new ArrayList<String>();
+        for (int i : order) {
+            times.add(index.time(i));
+            ids.add(index.id(i));
+        }
+        write(times, ids);
+    }
+    
+    /**
+     * Replaces the index with the given records, through a temporary file.
+     */
+    private static void write(ArrayList<Long> times, ArrayList<String> ids)
+            throws IOException {
+        File timesFile = new File(TIMES);
+        File temp = File.createTempFile("commit-times", ".tmp", timesFile.getParentFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)));
+        for (int i = 0; i < times.size(); i++) {
+            out.writeLong(times.get(i));
+            out.write(ObjectId.toBytes(ids.get(i)));
+        }
+        out.close();
+        MetadataStore.replace(temp, timesFile);
+    }
+}
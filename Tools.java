@@ -1,120 +1,81 @@
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 
 
 public class Tools {
     
     /**
-     * Copies a file in the working directory to given commit ID (hash) folder.
+     * Copies the blob with the given ID (hash) to fileName in the working directory,
+     * and records the new contents in the index.
      */
-    public static void copyToCommit(String fileName, String hash) {
-        try {
-            String[] folders = fileName.split("/");
-            String folderToMake = "";
-            for (int u = 0; u < folders.length - 1; u++) {
-                folderToMake += ("/" + folders[u]);
-                File newFolder = new File(".gitlet" + File.separator + hash + File.separator
-                        + folderToMake);
-                if (!newFolder.exists()) {
-                    newFolder.mkdir();
-                }
-            }
-            Files.copy(new File(fileName).toPath(), new File(".gitlet" + File.separator + hash
-                    + File.separator + fileName).toPath(), 
-                    StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public static void copyToDirectory(String fileName, String hash, Index index) {
+        copyAndRecord(hash, fileName, index);
     }
     
     /**
-     * Copies a file in given commit ID (hash) to working directory.
+     * Copies the blob with the given ID (hash) to working directory as .conflicted,
+     * and records the new contents in the index. For use in merge.
      */
-    public static void copyToDirectory(String fileName, String hash) {
-        try {
-            String[] folders = fileName.split("/");
-            String folderToMake = folders[0];
-            for (int u = 1; u < folders.length - 1; u++) {
-                folderToMake += ("/" + folders[u]);
-                File newFolder = new File(".gitlet" + File.separator + hash + File.separator
-                        + folderToMake);
-                if (!newFolder.exists()) {
-                    newFolder.mkdir();
-                }
-            }
-            Files.copy(new File(".gitlet" + File.separator + hash + File.separator
-                    + fileName).toPath(), new File(fileName).toPath(),
-                    StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-            e.printStackTrace();
+    public static void copyToDirectoryConflicted(String fileName, String hash, Index index) {
+        copyAndRecord(hash, fileName + ".conflicted", index);
+    }
+    
+    /**
+     * Copies the blob with the given ID (hash) to fileName, creating any missing parent
+     * folders, and records the new contents in the index. If the copy fails, whatever
+     * is left in the file doesn't match the blob, so its index entry is dropped instead.
+     */
+    private static void copyAndRecord(String hash, String fileName, Index index) {
+        File destination = new File(fileName);
+        File parent = destination.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        if (copyBlobTo(hash, destination)) {
+            index.update(fileName, hash);
+        } else {
+            index.remove(fileName);
         }
     }
     
     /**
-     * Copies file in given commit ID (hash) to working directory as .conflicted. For use in merge.
+     * Copies the blob with the given ID (hash) to the given destination.
+     * Assumes the destination's parent folder exists.
+     * Returns false if the blob couldn't be copied.
      */
-    public static void copyToDirectoryConflicted(String fileName, String hash) {
+    public static boolean copyBlobTo(String hash, File destination) {
         try {
-            String[] folders = fileName.split("/");
-            String folderToMake = folders[0];
-            for (int u = 1; u < folders.length - 1; u++) {
-                folderToMake += ("/" + folders[u]);
-                File newFolder = new File(".gitlet" + File.separator + hash + File.separator
-                        + folderToMake);
-                if (!newFolder.exists()) {
-                    newFolder.mkdir();
-                }
-            }
-            Files.copy(new File(".gitlet" + File.separator + hash + File.separator
-                    + fileName).toPath(), new File(fileName + ".conflicted").toPath(),
-                    StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+            ObjectStore.copyOut(hash, destination);
+            return true;
         } catch (IOException e) {
-            e.printStackTrace();    
+            e.printStackTrace();
+            return false;
         }
     }
     
     /**
-     * Checks to see if a file in the given commit ID (hash) has been changed from the
+     * Checks to see if the blob with the given ID (hash) has been changed from the
      * same file in the working directory.
-     * Returns true if file exists in commit, or if file has been changed.
+     * Returns true if the blob doesn't exist, or if file has been changed.
+     * If the index has an up-to-date entry for the file, its hash is used without
+     * reading the file. Files of different sizes are changed without reading either one.
+     * Otherwise, since blob IDs are hashes of their contents, only the working file is
+     * read and its streamed hash is compared against the ID, and recorded in the index.
      */
-    public static boolean checkFileChanged(String fileName, String hash) {
-        File committedFile = new File(".gitlet" + File.separator + hash + File.separator
-                + new File(fileName));
-        File newFile = new File(fileName);
-        if (!(committedFile.exists())) {
+    public static boolean checkFileChanged(String fileName, String hash, Index index) {
+        if (hash == null) {
             return true;
         }
-        boolean fileChanged = false;
-        try {
-            FileReader fileReader1 = new FileReader(committedFile);
-            FileReader fileReader2 = new FileReader(newFile); 
-            
-            BufferedReader bufferedReader1 = new BufferedReader(fileReader1);
-            BufferedReader bufferedReader2 = new BufferedReader(fileReader2);
-            
-            while (!fileChanged) {
-                String committedFileLine = bufferedReader1.readLine();
-                String newFileLine = bufferedReader2.readLine();
-                if (committedFileLine == null && newFileLine == null) {
-                    break;
-                } else if (committedFileLine == null && newFileLine != null) {
-                    fileChanged = true;
-                } else if (committedFileLine != null && newFileLine == null) {
-                    fileChanged = true;
-                } else if (!(committedFileLine).equals(newFileLine)) {
-                    fileChanged = true;
-                }
-            }
-            bufferedReader1.close();
-            bufferedReader2.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        String cachedHash = index.getCachedHash(fileName);
+        if (cachedHash != null) {
+            return !hash.equals(cachedHash);
+        }
+        if (!ObjectStore.contains(hash)) {
+            return true;
+        }
+        if (ObjectStore.size(hash) != new File(fileName).length()) {
+            return true;
         }
-        return fileChanged;
+        return !hash.equals(index.getHash(fileName));
     }
 }
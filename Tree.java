@@ -0,0 +1,227 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+public class Tree {
+    
+    /**
+     * Number of trees kept in memory. Trees along recently used paths are kept, so a
+     * long-running daemon doesn't keep every tree it has ever read.
+     */
+    private static final int CACHE_SIZE = 4096;
+    
+    @SuppressWarnings("serial")
+    private static LinkedHashMap<String, Tree> cache =
+            new LinkedHashMap<String, Tree>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Tree> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+    
+    private final TreeMap<String, String> files;
+    private final TreeMap<String, String> trees;
+    
+    /**
+     * Initializes all class variables. files maps the name of each file directly in
+     * this directory to its blob ID, and trees maps the name of each subdirectory to
+     * the ID of its tree.
+     */
+    private Tree(TreeMap<String, String> files, TreeMap<String, String> trees) {
+        this.files = files;
+        this.trees = trees;
+    }
+    
+    /**
+     * Reads a tree record written by write.
+     */
+    public static Tree read(DataInputStream in) throws IOException {
+        return new Tree(readMap(in), readMap(in));
+    }
+    
+    /**
+     * Writes this tree: its files, then its subdirectories, each in sorted order so
+     * that equal trees are written identically.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        writeMap(out, files);
+        writeMap(out, trees);
+    }
+    
+    /**
+     * Returns the tree with the given ID, loading it if it isn't among the trees most
+     * recently used.
+     */
+    public static synchronized Tree get(String id) {
+        Tree tree = cache.get(id);
+        if (tree == null) {
+            tree = MetadataStore.readTree(id);
+            cache.put(id, tree);
+        }
+        return tree;
+    }
+    
+    /**
+     * Returns the ID of the tree that results from changing the given tree, which may be
+     * null for an empty tree. changed maps file paths to their new blob IDs, and removed
+     * holds paths to delete. Only the trees along changed paths are rewritten; every
+     * other subtree is shared with the original by ID. Returns null if the result is
+     * empty.
+     */
+    public static String update(String rootID, HashMap<String, String> changed,
+            Set<String> removed) {
+        Tree root = rootID == null ? null : get(rootID);
+        TreeMap<String, String> files = new TreeMap<String, String>();
+        TreeMap<String, String> trees = new TreeMap<String, String>();
+        if (root != null) {
+            files.putAll(root.files);
+            trees.putAll(root.trees);
+        }
+        
+        HashMap<String, HashMap<String, String>> subChanged =
+                new HashMap<String, HashMap<String, String>>();
+        HashMap<String, HashSet<String>> subRemoved = new HashMap<String, HashSet<String>>();
+        for (String path : changed.keySet()) {
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                files.put(path, changed.get(path));
+            } else {
+                String directory = path.substring(0, slash);
+                if (!subChanged.containsKey(directory)) {
+                    subChanged.put(directory, new HashMap<String, String>());
+                }
+                subChanged.get(directory).put(path.substring(slash + 1), changed.get(path));
+            }
+        }
+        for (String path : removed) {
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                files.remove(path);
+            } else {
+                String directory = path.substring(0, slash);
+                if (!subRemoved.containsKey(directory)) {
+                    subRemoved.put(directory, new HashSet<String>());
+                }
+                subRemoved.get(directory).add(path.substring(slash + 1));
+            }
+        }
+        
+        HashSet<String> directories = new HashSet<String>(subChanged.keySet());
+        directories.addAll(subRemoved.keySet());
+        for (String directory : directories) {
+            HashMap<String, String> directoryChanged = subChanged.get(directory);
+            HashSet<String> directoryRemoved = subRemoved.get(directory);
+            String subtree = update(trees.get(directory),
+                    directoryChanged == null ? new HashMap<String, String>() : directoryChanged,
+                    directoryRemoved == null ? new HashSet<String>() : directoryRemoved);
+            if (subtree == null) {
+                trees.remove(directory);
+            } else {
+                trees.put(directory, subtree);
+            }
+        }
+        if (files.isEmpty() && trees.isEmpty()) {
+            return null;
+        }
+        return save(new Tree(files, trees));
+    }
+    
+    /**
+     * Returns the blob ID of the file at the given path in the given tree, or null if
+     * there is no such file. Only the trees along the path are read.
+     */
+    public static String lookup(String rootID, String path) {
+        String treeID = rootID;
+        int start = 0;
+        int slash;
+        while (treeID != null && (slash = path.indexOf('/', start)) >= 0) {
+            treeID = get(treeID).trees.get(path.substring(start, slash));
+            start = slash + 1;
+        }
+        return treeID == null ? null : get(treeID).files.get(path.substring(start));
+    }
+    
+    /**
+     * Returns a map of every file path in the given tree to its blob ID.
+     */
+    public static HashMap<String, String> flatten(String rootID) {
+        HashMap<String, String> result = new HashMap<String, String>();
+        if (rootID != null) {
+            flatten(get(rootID), "", result);
+        }
+        return result;
+    }
+    
+    /**
+     * Adds every file in the given tree to result, with prefix before each path.
+     */
+    private static void flatten(Tree tree, String prefix, HashMap<String, String> result) {
+        for (String name : tree.files.keySet()) {
+            result.put(prefix + name, tree.files.get(name));
+        }
+        for (String name : tree.trees.keySet()) {
+            flatten(get(tree.trees.get(name)), prefix + name + "/", result);
+        }
+    }
+    
+    /**
+     * Saves the given tree under the SHA-256 hash of its record, unless an equal tree
+     * is already saved, and returns that ID.
+     */
+    private static String save(Tree tree) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            tree.write(out);
+            out.close();
+            byte[] record = bytes.toByteArray();
+            String id = ObjectId.toHex(MessageDigest.getInstance("SHA-256").digest(record));
+            synchronized (Tree.class) {
+                if (!cache.containsKey(id)) {
+                    MetadataStore.writeTree(id, record);
+                    cache.put(id, tree);
+                }
+            }
+            return id;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+    
+    /**
+     * Reads a map of strings written by writeMap.
+     */
+    private static TreeMap<String, String> readMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        TreeMap<String, String> map = new TreeMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            map.put(in.readUTF(), in.readUTF());
+        }
+        return map;
+    }
+    
+    /**
+     * Writes the size of the given map, followed by each key and value.
+     */
+    private static void writeMap(DataOutputStream out, TreeMap<String, String> map)
+            throws IOException {
+        out.writeInt(map.size());
+        for (String key : map.keySet()) {
+            out.writeUTF(key);
+            out.writeUTF(map.get(key));
+        }
+    }
+}
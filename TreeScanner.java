@@ -0,0 +1,235 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+public class TreeScanner {
+    
+    /**
+     * Directories with more entries than this are split between several tasks.
+     */
+    private static final int BATCH_SIZE = 256;
+    
+    private final HashMap<String, String> headFiles;
+    private final HashSet<String> stagedFiles;
+    private final HashSet<String> removedFiles;
+    private final Index index;
+    private final Set<String> seen;
+    private final Set<String> modified;
+    private final Set<String> untracked;
+    
+    /**
+     * Initializes all class variables. Files are compared against headFiles, which maps
+     * each tracked file name to its blob ID, unless they are staged or marked for removal.
+     * The stage and removal list are copied, so that a later scan can tell whether they
+     * have changed since.
+     */
+    public TreeScanner(HashMap<String, String> headFiles, HashSet<String> stagedFiles,
+            HashSet<String> removedFiles, Index index) {
+        this.headFiles = headFiles;
+        this.stagedFiles = new HashSet<String>(stagedFiles);
+        this.removedFiles = new HashSet<String>(removedFiles);
+        this.index = index;
+        this.seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.modified = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.untracked = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+    
+    /**
+     * Walks the working directory, except for .gitlet, in parallel on a fork-join pool
+     * with one worker per core. Each file is checked against the head commit through
+     * the index, so unchanged files cost a single stat call.
+     */
+    public void scan() {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new DirectoryTask(new File("."), ""));
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Checks the working directory as kept by the given watcher instead of walking it,
+     * and returns the scanner holding the results. If the watcher's last scan was made
+     * against the same head files, stage, removal list and index, only the files that
+     * changed since are checked again, and that scan is returned with the rest of its
+     * results kept. If only the head, stage or removal list differ, every file the
+     * watcher knows is checked, but unchanged files are compared through the hash
+     * recorded in the index without a stat call. Otherwise, such as on the first
+     * status after the daemon starts, this scanner walks the working directory.
+     */
+    public TreeScanner scan(TreeWatcher watcher) {
+        watcher.sync();
+        HashSet<String> changed = watcher.takeChanges();
+        TreeScanner last = watcher.getLastScan();
+        TreeScanner result = this;
+        if (changed == null || last == null || last.index != index) {
+            scan();
+        } else if (last.headFiles == headFiles && last.stagedFiles.equals(stagedFiles)
+                && last.removedFiles.equals(removedFiles)) {
+            for (String fileName : changed) {
+                last.seen.remove(fileName);
+                last.modified.remove(fileName);
+                last.untracked.remove(fileName);
+                if (new File(fileName).isFile()) {
+                    last.check(fileName);
+                }
+            }
+            result = last;
+        } else {
+            for (String fileName : watcher.getFiles()) {
+                if (changed.contains(fileName)) {
+                    check(fileName);
+                } else {
+                    checkUnchanged(fileName);
+                }
+            }
+        }
+        watcher.setLastScan(result);
+        return result;
+    }
+    
+    /**
+     * Returns names of tracked files that were changed but not staged, in sorted order.
+     */
+    public TreeSet<String> getModified() {
+        return new TreeSet<String>(modified);
+    }
+    
+    /**
+     * Returns names of tracked or staged files that no longer exist, in sorted order.
+     */
+    public TreeSet<String> getDeleted() {
+        TreeSet<String> deleted = new TreeSet<String>();
+        for (String item : headFiles.keySet()) {
+            if (!seen.contains(item) && !removedFiles.contains(item)) {
+                deleted.add(item);
+            }
+        }
+        for (String item : stagedFiles) {
+            if (!seen.contains(item)) {
+                deleted.add(item);
+            }
+        }
+        return deleted;
+    }
+    
+    /**
+     * Returns names of files that are neither tracked nor staged, in sorted order.
+     * Files marked for removal that still exist are untracked.
+     */
+    public TreeSet<String> getUntracked() {
+        return new TreeSet<String>(untracked);
+    }
+    
+    /**
+     * Checks a single file in the working directory, given its name relative to
+     * the working directory.
+     */
+    private void check(String fileName) {
+        seen.add(fileName);
+        if (stagedFiles.contains(fileName)) {
+            return;
+        }
+        if (!headFiles.containsKey(fileName) || removedFiles.contains(fileName)) {
+            untracked.add(fileName);
+        } else if (Tools.checkFileChanged(fileName, headFiles.get(fileName), index)) {
+            modified.add(fileName);
+        }
+    }
+    
+    /**
+     * Checks a single file known not to have changed since the index was last brought
+     * up to date for it, trusting its recorded hash instead of its stat data. Files
+     * without a recorded hash are checked as usual.
+     */
+    private void checkUnchanged(String fileName) {
+        String hash = index.getRecordedHash(fileName);
+        if (hash == null || stagedFiles.contains(fileName) || !headFiles.containsKey(fileName)
+                || removedFiles.contains(fileName)) {
+            check(fileName);
+            return;
+        }
+        seen.add(fileName);
+        if (!hash.equals(headFiles.get(fileName))) {
+            modified.add(fileName);
+        }
+    }
+    
+    /**
+     * Lists one directory, checks its files in batches, and forks a task for each
+     * subdirectory.
+     */
+    @SuppressWarnings("serial")
+    private class DirectoryTask extends RecursiveAction {
+        private final File directory;
+        private final String prefix;
+        
+        DirectoryTask(File directory, String prefix) {
+            this.directory = directory;
+            this.prefix = prefix;
+        }
+        
+        @Override
+        protected void compute() {
+            File[] entries = directory.listFiles();
+            if (entries == null) {
+                return;
+            }
+            new EntriesTask(entries, prefix, 0, entries.length).invoke();
+        }
+    }
+    
+    /**
+     * Handles a range of entries of one directory, splitting large ranges in half.
+     */
+    @SuppressWarnings("serial")
+    private class EntriesTask extends RecursiveAction {
+        private final File[] entries;
+        private final String prefix;
+        private final int start;
+        private final int end;
+        
+        EntriesTask(File[] entries, String prefix, int start, int end) {
+            this.entries = entries;
+            this.prefix = prefix;
+            this.start = start;
+            this.end = end;
+        }
+        
+        @Override
+        protected void compute() {
+            if (end - start > BATCH_SIZE) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new EntriesTask(entries, prefix, start, middle),
+                        new EntriesTask(entries, prefix, middle, end));
+                return;
+            }
+            ArrayList<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+            for (int i = start; i < end; i++) {
+                File entry = entries[i];
+                String name = prefix + entry.getName();
+                if (entry.isDirectory()) {
+                    if (!name.equals(".gitlet")) {
+                        DirectoryTask task = new DirectoryTask(entry, name + "/");
+                        task.fork();
+                        subdirectories.add(task);
+                    }
+                } else if (entry.isFile()) {
+                    check(name);
+                }
+            }
+            for (DirectoryTask task : subdirectories) {
+                task.join();
+            }
+        }
+    }
+}
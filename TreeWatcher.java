@@ -0,0 +1,332 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+
+public class TreeWatcher {
+    
+    /**
+     * Prefix of the marker files created in .gitlet by sync. Each is numbered, so that
+     * its event tells which sync it answers.
+     */
+    private static final String MARKER = "watch-sync-";
+    
+    /**
+     * How long sync waits for its marker before giving up on the watcher's changes.
+     */
+    private static final long SYNC_TIMEOUT_MILLIS = 1000;
+    
+    private final WatchService service;
+    private final HashMap<WatchKey, String> prefixes;
+    private final TreeMap<String, WatchKey> keys;
+    private final TreeSet<String> files;
+    private WatchKey markerKey;
+    private HashSet<String> changed;
+    private boolean failed;
+    private TreeScanner lastScan;
+    private long syncsSent;
+    private long syncsSeen;
+    
+    /**
+     * Initializes all class variables. Until the first changes are taken, every file
+     * counts as changed.
+     */
+    private TreeWatcher(WatchService service) {
+        this.service = service;
+        this.prefixes = new HashMap<WatchKey, String>();
+        this.keys = new TreeMap<String, WatchKey>();
+        this.files = new TreeSet<String>();
+        this.markerKey = null;
+        this.changed = null;
+        this.failed = false;
+        this.lastScan = null;
+        this.syncsSent = 0;
+        this.syncsSeen = 0;
+    }
+    
+    /**
+     * Starts watching the working directory, except for .gitlet, through a WatchService
+     * with one watch per directory. The watcher keeps the names of all files in the
+     * working directory and of the files changed since its changes were last taken,
+     * updated from events on its own thread. Returns null if the directory can't be
+     * watched.
+     */
+    public static TreeWatcher start() {
+        try {
+            final TreeWatcher watcher = new TreeWatcher(
+                    FileSystems.getDefault().newWatchService());
+            watcher.markerKey = new File(".gitlet").toPath().register(watcher.service,
+                    StandardWatchEventKinds.ENTRY_CREATE);
+            synchronized (watcher) {
+                watcher.register(new File("."), "");
+            }
+            if (watcher.failed) {
+                watcher.close();
+                return null;
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    watcher.watch();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            return watcher;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Stops watching.
+     */
+    public void close() {
+        try {
+            service.close();
+        } catch (IOException e) {
+            return;
+        }
+    }
+    
+    /**
+     * Waits until every event for changes made before this call has been handled.
+     * Events arrive a little after the changes they report, so a file written just
+     * before a command would otherwise be missed. An empty marker file is created in
+     * .gitlet; events come in order, so once the marker's event is handled, so are
+     * all earlier ones. If it doesn't arrive in time, every file counts as changed.
+     */
+    public void sync() {
+        long target;
+        synchronized (this) {
+            target = ++syncsSent;
+        }
+        File marker = new File(".gitlet", MARKER + target);
+        try {
+            marker.createNewFile();
+        } catch (IOException e) {
+            forget();
+            return;
+        }
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + SYNC_TIMEOUT_MILLIS;
+            long remaining = SYNC_TIMEOUT_MILLIS;
+            while (syncsSeen < target && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            if (syncsSeen < target) {
+                changed = null;
+                lastScan = null;
+            }
+        }
+        marker.delete();
+    }
+    
+    /**
+     * Returns the names of the files changed, created or deleted since this was last
+     * called, and starts collecting changes afresh. Returns null if every file must be
+     * checked: when the watcher has just started, missed events or failed to watch a
+     * directory.
+     */
+    public synchronized HashSet<String> takeChanges() {
+        HashSet<String> result = failed ? null : changed;
+        changed = new HashSet<String>();
+        return result;
+    }
+    
+    /**
+     * Returns the names of all files in the working directory, in sorted order.
+     */
+    public synchronized ArrayList<String> getFiles() {
+        return new ArrayList<String>(files);
+    }
+    
+    /**
+     * Returns the scanner of the last status, or null if there is none.
+     */
+    public synchronized TreeScanner getLastScan() {
+        return lastScan;
+    }
+    
+    /**
+     * Keeps the scanner of this status, for the next one to bring up to date.
+     */
+    public synchronized void setLastScan(TreeScanner scan) {
+        lastScan = scan;
+    }
+    
+    /**
+     * Forgets the changes collected so far and the last scan, so that every file is
+     * checked again. Used when changes were taken by a command that then failed.
+     */
+    public synchronized void forget() {
+        changed = null;
+        lastScan = null;
+    }
+    
+    /**
+     * Handles events until the watcher is closed.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                handle(service.take());
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (ClosedWatchServiceException e) {
+            return;
+        }
+    }
+    
+    /**
+     * Handles the events of one directory. A marker's event is only answered once
+     * every key already waiting has been handled too, since a directory whose key was
+     * being handled when the marker was created is queued again behind it.
+     */
+    private void handle(WatchKey key) {
+        long marker = 0;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rewatch();
+                continue;
+            }
+            String name = ((Path) event.context()).toString();
+            if (key == markerKey) {
+                if (name.startsWith(MARKER)) {
+                    marker = Math.max(marker, Long.parseLong(name.substring(MARKER.length())));
+                }
+                continue;
+            }
+            update(key, name);
+        }
+        if (!key.reset()) {
+            synchronized (this) {
+                String prefix = prefixes.remove(key);
+                if (prefix != null && keys.get(prefix) == key) {
+                    keys.remove(prefix);
+                }
+            }
+        }
+        if (marker > 0) {
+            WatchKey next;
+            while ((next = service.poll()) != null) {
+                handle(next);
+            }
+            synchronized (this) {
+                syncsSeen = Math.max(syncsSeen, marker);
+                notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Records a change to the given entry of the directory watched by key, checking
+     * what the entry is now rather than trusting the kind of event, since several
+     * events may have been merged into one. A new directory is watched and its files
+     * added; a directory that is gone takes its files and watches with it.
+     */
+    private synchronized void update(WatchKey key, String entry) {
+        String prefix = prefixes.get(key);
+        if (prefix == null) {
+            return;
+        }
+        String name = prefix + entry;
+        if (prefix.isEmpty() && name.equals(".gitlet")) {
+            return;
+        }
+        File file = new File(name);
+        if (changed != null) {
+            changed.add(name);
+        }
+        if (file.isFile()) {
+            files.add(name);
+            return;
+        }
+        files.remove(name);
+        String under = name + "/";
+        SortedSet<String> gone = files.subSet(under, under + Character.MAX_VALUE);
+        if (changed != null) {
+            changed.addAll(gone);
+        }
+        gone.clear();
+        SortedMap<String, WatchKey> goneKeys = keys.subMap(under, under + Character.MAX_VALUE);
+        for (WatchKey goneKey : goneKeys.values()) {
+            goneKey.cancel();
+            prefixes.remove(goneKey);
+        }
+        goneKeys.clear();
+        if (file.isDirectory()) {
+            register(file, under);
+        }
+    }
+    
+    /**
+     * Watches the whole working directory again from scratch, after events were lost.
+     */
+    private synchronized void rewatch() {
+        for (WatchKey key : prefixes.keySet()) {
+            key.cancel();
+        }
+        prefixes.clear();
+        keys.clear();
+        files.clear();
+        changed = null;
+        register(new File("."), "");
+    }
+    
+    /**
+     * Watches the given directory, whose files' names start with prefix, and every
+     * directory in it, and adds their files. If a directory that still exists can't be
+     * watched, its changes would be missed, so every file is checked from then on.
+     */
+    private void register(File directory, String prefix) {
+        try {
+            WatchKey key = directory.toPath().register(service,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            prefixes.put(key, prefix);
+            keys.put(prefix, key);
+        } catch (IOException e) {
+            if (directory.isDirectory()) {
+                failed = true;
+            }
+            return;
+        }
+        File[] entries = directory.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            String name = prefix + entry.getName();
+            if (entry.isDirectory()) {
+                if (!name.equals(".gitlet")) {
+                    register(entry, name + "/");
+                }
+            } else if (entry.isFile()) {
+                files.add(name);
+                if (changed != null) {
+                    changed.add(name);
+                }
+            }
+        }
+    }
+}